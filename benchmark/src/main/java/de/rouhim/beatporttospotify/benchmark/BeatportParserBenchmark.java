@@ -0,0 +1,51 @@
+package de.rouhim.beatporttospotify.benchmark;
+
+import de.rouhim.beatporttospotify.beatport.BeatPortParserService;
+import de.rouhim.beatporttospotify.beatport.BeatportPlaylist;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BeatportParserBenchmark {
+    private final BeatPortParserService parserService = new BeatPortParserService(null, null, null, null, null);
+    private String chartHtml;
+    private Document chartDocument;
+
+    @Setup
+    public void setup() {
+        chartHtml = Fixtures.readString(Fixtures.BEATPORT_CHART_HTML);
+        chartDocument = Jsoup.parse(chartHtml);
+    }
+
+    @Benchmark
+    public Document parseHtml() {
+        return Jsoup.parse(chartHtml);
+    }
+
+    @Benchmark
+    public BeatportPlaylist extractPlaylist() {
+        return parserService.parse(Fixtures.BEATPORT_CHART_URL, chartDocument);
+    }
+
+    @Benchmark
+    public BeatportPlaylist parseChart() {
+        return parserService.parse(Fixtures.BEATPORT_CHART_URL, Jsoup.parse(chartHtml));
+    }
+}
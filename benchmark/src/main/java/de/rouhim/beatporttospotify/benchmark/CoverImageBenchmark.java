@@ -0,0 +1,59 @@
+package de.rouhim.beatporttospotify.benchmark;
+
+import de.rouhim.beatporttospotify.image.CoverImageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CoverImageBenchmark {
+    private static final String COVER_TITLE = "Melodic House & Techno";
+
+    private BufferedImage background;
+    private BufferedImage renderTarget;
+    private BufferedImage renderedCover;
+
+    @Setup
+    public void setup() {
+        background = Fixtures.copyOf(Fixtures.readImage(Fixtures.COVER_BACKGROUND_JPG));
+        renderedCover = CoverImageService.render(Fixtures.copyOf(background), COVER_TITLE);
+    }
+
+    // Rendering draws onto the image, so every invocation needs a fresh copy of the background
+    @Setup(Level.Invocation)
+    public void resetRenderTarget() {
+        renderTarget = Fixtures.copyOf(background);
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        return CoverImageService.render(renderTarget, COVER_TITLE);
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        return CoverImageService.compress(renderedCover);
+    }
+
+    @Benchmark
+    public byte[] renderAndCompress() throws IOException {
+        return CoverImageService.compress(CoverImageService.render(renderTarget, COVER_TITLE));
+    }
+}
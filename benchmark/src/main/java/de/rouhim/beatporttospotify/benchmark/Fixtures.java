@@ -0,0 +1,55 @@
+package de.rouhim.beatporttospotify.benchmark;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads the checked-in fixtures, so no benchmark depends on Beatport, Spotify or Unsplash being reachable.
+ */
+final class Fixtures {
+    static final String BEATPORT_CHART_URL = "https://www.beatport.com/genre/melodic-house-techno/90/top-100";
+    static final String BEATPORT_CHART_HTML = "/fixtures/beatport-top-100.html";
+    static final String SPOTIFY_SEARCH_TRACKS_JSON = "/fixtures/spotify-search-tracks.json";
+    static final String COVER_BACKGROUND_JPG = "/fixtures/cover-background.jpg";
+
+    private Fixtures() {
+    }
+
+    static String readString(String resource) {
+        return new String(readBytes(resource), StandardCharsets.UTF_8);
+    }
+
+    static byte[] readBytes(String resource) {
+        try (InputStream inputStream = Fixtures.class.getResourceAsStream(resource)) {
+            if (inputStream == null) {
+                throw new IllegalStateException("Missing fixture: " + resource);
+            }
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static BufferedImage readImage(String resource) {
+        try {
+            return ImageIO.read(new ByteArrayInputStream(readBytes(resource)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ImageIO returns an image with a custom color model for some jpegs, draw it into a plain RGB copy
+    static BufferedImage copyOf(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = copy.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return copy;
+    }
+}
@@ -0,0 +1,66 @@
+package de.rouhim.beatporttospotify.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.rouhim.beatporttospotify.beatport.BeatPortParserService;
+import de.rouhim.beatporttospotify.beatport.BeatportPlaylist;
+import de.rouhim.beatporttospotify.image.CoverImage;
+import org.jsoup.Jsoup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the kafka payload (de)serialization, configured like the static object mappers of the services.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonSerializationBenchmark {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private BeatportPlaylist playlist;
+    private String playlistJson;
+    private CoverImage coverImage;
+    private String coverImageJson;
+
+    @Setup
+    public void setup() throws JsonProcessingException {
+        String chartHtml = Fixtures.readString(Fixtures.BEATPORT_CHART_HTML);
+        playlist = new BeatPortParserService(null, null, null, null, null).parse(Fixtures.BEATPORT_CHART_URL, Jsoup.parse(chartHtml));
+        playlistJson = objectMapper.writeValueAsString(playlist);
+        coverImage = new CoverImage("37i9dQZF1DX0XUsuxWHRQd", Fixtures.readBytes(Fixtures.COVER_BACKGROUND_JPG));
+        coverImageJson = objectMapper.writeValueAsString(coverImage);
+    }
+
+    @Benchmark
+    public String serializePlaylist() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(playlist);
+    }
+
+    @Benchmark
+    public BeatportPlaylist deserializePlaylist() throws JsonProcessingException {
+        return objectMapper.readValue(playlistJson, BeatportPlaylist.class);
+    }
+
+    @Benchmark
+    public String serializeCoverImage() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(coverImage);
+    }
+
+    @Benchmark
+    public CoverImage deserializeCoverImage() throws JsonProcessingException {
+        return objectMapper.readValue(coverImageJson, CoverImage.class);
+    }
+}
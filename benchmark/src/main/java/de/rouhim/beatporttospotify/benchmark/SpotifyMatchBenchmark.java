@@ -0,0 +1,64 @@
+package de.rouhim.beatporttospotify.benchmark;
+
+import de.rouhim.beatporttospotify.beatport.BeatPortParserService;
+import de.rouhim.beatporttospotify.beatport.BeatportTrack;
+import de.rouhim.beatporttospotify.spotify.SpotifyTrackMatcher;
+import org.jsoup.Jsoup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+import se.michaelthelin.spotify.model_objects.specification.Track;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpotifyMatchBenchmark {
+    private List<BeatportTrack> chartTracks;
+    private String searchResponseJson;
+    private Track[] searchResult;
+
+    @Setup
+    public void setup() {
+        String chartHtml = Fixtures.readString(Fixtures.BEATPORT_CHART_HTML);
+        chartTracks = new BeatPortParserService(null, null, null, null, null)
+                .parse(Fixtures.BEATPORT_CHART_URL, Jsoup.parse(chartHtml))
+                .tracks();
+        searchResponseJson = Fixtures.readString(Fixtures.SPOTIFY_SEARCH_TRACKS_JSON);
+        searchResult = parseSearchResponse().getItems();
+    }
+
+    // Builds the search queries of a whole chart
+    @Benchmark
+    public void buildSearchQueries(Blackhole blackhole) {
+        for (BeatportTrack chartTrack : chartTracks) {
+            blackhole.consume(SpotifyTrackMatcher.toSearchQuery(chartTrack));
+        }
+    }
+
+    // Same deserialization the spotify client does for a search response
+    @Benchmark
+    public Paging<Track> parseSearchResponse() {
+        return new Track.JsonUtil().createModelObjectPaging(searchResponseJson, "tracks");
+    }
+
+    @Benchmark
+    public Optional<Track> selectMatch() {
+        return SpotifyTrackMatcher.selectMatch(searchResult);
+    }
+}
@@ -0,0 +1,72 @@
+#!/usr/bin/env bash
+#
+# Measures the time-to-ready of the container image with the application class data sharing archive,
+# against a baseline without flags, which still uses the default CDS archive of the JDK.
+#
+# Usage:
+#     docker compose up -d kafka redis
+#     benchmark/startup-benchmark.sh [runs]
+#
+# Spotify credentials are taken from SPOTIFY_CLIENT_ID, SPOTIFY_CLIENT_SECRET and SPOTIFY_AUTH_CODE, the tokens
+# are kept in ./data. Without valid credentials only the time until the context is started is reported.
+# Set CONTAINER_ENGINE=podman to use podman.
+
+set -euo pipefail
+
+RUNS="${1:-5}"
+ENGINE="${CONTAINER_ENGINE:-docker}"
+IMAGE="rouhim/beatport-to-spotify"
+NETWORK="$(basename "$(pwd)")_default"
+TIMEOUT_SECONDS=120
+CLASS_PATH="/app/application.jar:/app/lib/*"
+MAIN_CLASS="de.rouhim.beatporttospotify.BeatportToSpotifyApplication"
+
+"$ENGINE" build -q -t "$IMAGE" -f Containerfile . > /dev/null
+mkdir -p data
+
+# Prints "<ms until context started> <ms until ready>", ready is empty if it was not reached in time
+measure() {
+    local name="startup-benchmark-$RANDOM"
+    "$ENGINE" run -d --name "$name" --network "$NETWORK" \
+        -e SPRING_PROFILES_ACTIVE=prod,fast-startup \
+        -e BEATPORT_URLS=https://www.beatport.com/genre/psy-trance/13/top-100 \
+        -e SPOTIFY_CLIENT_ID="${SPOTIFY_CLIENT_ID:-xy}" \
+        -e SPOTIFY_CLIENT_SECRET="${SPOTIFY_CLIENT_SECRET:-xy}" \
+        -e SPOTIFY_AUTH_CODE="${SPOTIFY_AUTH_CODE:-xy}" \
+        -v "$(pwd)/data:/app/data" \
+        --entrypoint java "$IMAGE" "$@" -cp "$CLASS_PATH" "$MAIN_CLASS" > /dev/null
+
+    local started="" ready="" logs
+    for ((i = 0; i < TIMEOUT_SECONDS * 4; i++)); do
+        logs="$("$ENGINE" logs "$name" 2>&1)"
+        started="$(sed -n 's/.*Started .* (process running for \([0-9.]*\)).*/\1/p' <<< "$logs" | head -1)"
+        ready="$(sed -n 's/.*Ready after \([0-9]*\) ms since JVM start.*/\1/p' <<< "$logs" | head -1)"
+        [[ -n "$ready" ]] && break
+        sleep 0.25
+    done
+
+    "$ENGINE" rm -f "$name" > /dev/null
+    echo "$(awk -v s="${started:-0}" 'BEGIN { printf "%d", s * 1000 }') $ready"
+}
+
+report() {
+    local label="$1"
+    shift
+    local started_sum=0 ready_sum=0 ready_count=0 started ready
+    for ((run = 1; run <= RUNS; run++)); do
+        read -r started ready <<< "$(measure "$@")"
+        started_sum=$((started_sum + started))
+        if [[ -n "$ready" ]]; then
+            ready_sum=$((ready_sum + ready))
+            ready_count=$((ready_count + 1))
+        fi
+    done
+
+    local ready_avg="n/a"
+    [[ "$ready_count" -gt 0 ]] && ready_avg="$((ready_sum / ready_count)) ms"
+    printf "%-14s context started: %6d ms   ready: %s\n" "$label" "$((started_sum / RUNS))" "$ready_avg"
+}
+
+echo "Average of $RUNS runs:"
+report "JDK CDS"
+report "app CDS" -XX:SharedArchiveFile=/app/application.jsa
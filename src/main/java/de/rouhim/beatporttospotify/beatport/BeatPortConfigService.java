@@ -1,14 +1,20 @@
 package de.rouhim.beatporttospotify.beatport;
 
+import de.rouhim.beatporttospotify.config.Settings;
+import de.rouhim.beatporttospotify.scheduler.RunLeaseService;
 import de.rouhim.beatporttospotify.scheduler.SchedulerService;
+import de.rouhim.beatporttospotify.sync.PipelineProducer;
+import de.rouhim.beatporttospotify.sync.SyncRun;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Service;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_URL_OBTAINED;
 import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_BEATPORT_PARSING_SCHEDULED;
@@ -17,27 +23,53 @@ import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_BE
 public class BeatPortConfigService {
     private final Logger logger = LoggerFactory.getLogger(SchedulerService.class);
 
-    private final KafkaTemplate<String, String> kafkaStringMessage;
+    private final PipelineProducer pipelineProducer;
+    private final RunLeaseService runLeaseService;
 
-    public BeatPortConfigService(KafkaTemplate<String, String> kafkaStringMessage) {
-        this.kafkaStringMessage = kafkaStringMessage;
+    public BeatPortConfigService(PipelineProducer pipelineProducer, RunLeaseService runLeaseService) {
+        this.pipelineProducer = pipelineProducer;
+        this.runLeaseService = runLeaseService;
     }
 
     @KafkaListener(topics = KAFKA_TOPIC_BEATPORT_PARSING_SCHEDULED)
-    public void consume() {
+    public void consume(@Header(name = SyncRun.HEADER_RUN_ID, required = false) String runId,
+                        @Header(name = SyncRun.HEADER_FENCING_TOKEN, required = false) String fencingToken,
+                        Acknowledgment acknowledgment) {
         logger.info("Consumed message from topic: " + KAFKA_TOPIC_BEATPORT_PARSING_SCHEDULED);
 
-        List<String> playlists = readBeatportGenrePlaylistFromConfig();
-        logger.info("Found " + playlists.size() + " playlists");
+        if (fencingToken != null && !runLeaseService.isCurrent(Long.parseLong(fencingToken))) {
+            logger.info("Ignoring stale trigger of run {}, a newer run was already scheduled", runId);
+            acknowledgment.acknowledge();
+            return;
+        }
 
-        playlists.forEach(playlist -> {
-            kafkaStringMessage.send(KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_URL_OBTAINED, playlist);
-        });
+        List<CompletableFuture<?>> sent = new ArrayList<>();
+        for (String accountId : Settings.readAccountIds()) {
+            List<String> playlists = readBeatportGenrePlaylistFromConfig(accountId);
+            logger.info("Found " + playlists.size() + " playlists for account " + accountId);
+
+            playlists.stream()
+                    .map(playlist -> pipelineProducer.send(SyncRun.accountMessage(KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_URL_OBTAINED, accountId, playlist, runId)))
+                    .forEach(sent::add);
+        }
+
+        // Only commit once every chart url is handed over to the next stage
+        CompletableFuture.allOf(sent.toArray(CompletableFuture[]::new)).join();
+        acknowledgment.acknowledge();
+    }
+
+    private List<String> readBeatportGenrePlaylistFromConfig(String accountId) {
+        return readChartConfigs(accountId).stream()
+                .map(ChartConfig::url)
+                .toList();
     }
 
-    private List<String> readBeatportGenrePlaylistFromConfig() {
-        var env = System.getenv();
-        String[] beatportGenrePlaylistUrls = env.get("BEATPORT_URLS").split(",");
-        return Arrays.asList(beatportGenrePlaylistUrls);
+    // Every account has its own chart list, e.g. BEATPORT_URLS_ALICE for account alice
+    public static List<ChartConfig> readChartConfigs(String accountId) {
+        return Settings.readStringList(Settings.EnvValue.BEATPORT_URLS, accountId)
+                .stream()
+                .filter(entry -> !entry.isBlank())
+                .map(ChartConfig::parse)
+                .toList();
     }
 }
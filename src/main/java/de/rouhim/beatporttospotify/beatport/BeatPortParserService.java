@@ -1,8 +1,14 @@
 package de.rouhim.beatporttospotify.beatport;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import de.rouhim.beatporttospotify.resilience.DependencyGuard;
+import de.rouhim.beatporttospotify.scheduler.ChartScheduleService;
 import de.rouhim.beatporttospotify.scheduler.SchedulerService;
+import de.rouhim.beatporttospotify.sync.IdempotencyService;
+import de.rouhim.beatporttospotify.sync.PipelineProducer;
+import de.rouhim.beatporttospotify.sync.SyncProgress;
+import de.rouhim.beatporttospotify.sync.SyncProgressPublisher;
+import de.rouhim.beatporttospotify.sync.SyncRun;
 import org.apache.commons.io.IOUtils;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -10,11 +16,14 @@ import org.jsoup.nodes.Element;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 
@@ -25,15 +34,32 @@ import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_BE
 public class BeatPortParserService {
     private static final ObjectMapper objectMapper = new ObjectMapper();
     public static final String SUFFIX_BEATPORT_TOP_100 = " - Beatport Top 100";
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
     private final Logger logger = LoggerFactory.getLogger(SchedulerService.class);
-    private final KafkaTemplate<String, String> kafkaStringMessage;
-
-    public BeatPortParserService(KafkaTemplate<String, String> kafkaStringMessage) {
-        this.kafkaStringMessage = kafkaStringMessage;
+    private final PipelineProducer pipelineProducer;
+    private final IdempotencyService idempotencyService;
+    private final ChartScheduleService chartScheduleService;
+    private final DependencyGuard dependencyGuard;
+    private final SyncProgressPublisher syncProgressPublisher;
+
+    public BeatPortParserService(PipelineProducer pipelineProducer,
+                                 IdempotencyService idempotencyService,
+                                 ChartScheduleService chartScheduleService,
+                                 DependencyGuard dependencyGuard,
+                                 SyncProgressPublisher syncProgressPublisher) {
+        this.pipelineProducer = pipelineProducer;
+        this.idempotencyService = idempotencyService;
+        this.chartScheduleService = chartScheduleService;
+        this.dependencyGuard = dependencyGuard;
+        this.syncProgressPublisher = syncProgressPublisher;
     }
 
     @KafkaListener(topics = KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_URL_OBTAINED)
-    public void consume(String playlistUrl) throws JsonProcessingException {
+    public void consume(String playlistUrl,
+                        @Header(name = SyncRun.HEADER_RUN_ID, required = false) String runId,
+                        @Header(name = SyncRun.HEADER_ACCOUNT, required = false) String accountId,
+                        Acknowledgment acknowledgment) throws Exception {
         logger.info(
                 "Consumed message from topic: %s with url: %s"
                         .formatted(
@@ -42,36 +68,55 @@ public class BeatPortParserService {
                         )
         );
 
-        BeatportPlaylist beatportPlaylist = parse(playlistUrl);
+        // Accounts may sync the same chart within one run
+        String account = SyncRun.accountOrDefault(accountId);
+        String idempotencyKey = account + "|" + playlistUrl;
+        if (idempotencyService.isProcessed(IdempotencyService.STAGE_PARSE, runId, idempotencyKey)) {
+            acknowledgment.acknowledge();
+            return;
+        }
+
+        Document document = dependencyGuard.call(DependencyGuard.BEATPORT, () -> fetchDocument(playlistUrl));
+        syncProgressPublisher.publish(runId, SyncProgress.Stage.FETCHED);
+
+        BeatportPlaylist beatportPlaylist = parse(playlistUrl, document);
+        syncProgressPublisher.publish(runId, SyncProgress.Stage.PARSED, 0, beatportPlaylist.tracks().size());
 
         // Serialize to json string
         var beatportPlaylistJson = objectMapper.writeValueAsString(beatportPlaylist);
 
+        // Stable charts are polled less often
+        chartScheduleService.recordContent(
+                account,
+                playlistUrl,
+                IdempotencyService.fingerprint(objectMapper.writeValueAsString(beatportPlaylist.tracks()))
+        );
+
 
         // Send message to KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_PARSED
-        kafkaStringMessage.send(KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_PARSED, beatportPlaylistJson);
+        pipelineProducer.send(SyncRun.accountMessage(KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_PARSED, account, beatportPlaylistJson, runId)).join();
+
+        idempotencyService.markProcessed(IdempotencyService.STAGE_PARSE, runId, idempotencyKey);
+        acknowledgment.acknowledge();
     }
 
     public List<BeatportTrack> getTracks(String beatportUrl) {
-        try {
-            URI beatportUri = URI.create(beatportUrl);
-            Document doc = Jsoup.parse(IOUtils.toString(beatportUri, StandardCharsets.UTF_8));
+        return getTracks(beatportUrl, fetchDocument(beatportUrl));
+    }
 
-            System.out.println("Parsing Tracks from: " + beatportUrl);
+    private List<BeatportTrack> getTracks(String beatportUrl, Document doc) {
+        System.out.println("Parsing Tracks from: " + beatportUrl);
 
-            // Select div with the following tag: data-testid="tracks-list-item"
-            List<BeatportTrack> beatportTracks = doc
-                    .select("div[data-testid=tracks-table-row]")
-                    .stream()
-                    .map(this::toTrack)
-                    .toList();
+        // Select div with the following tag: data-testid="tracks-list-item"
+        List<BeatportTrack> beatportTracks = doc
+                .select("div[data-testid=tracks-table-row]")
+                .stream()
+                .map(this::toTrack)
+                .toList();
 
-            System.out.println("Found " + beatportTracks.size() + " tracks");
+        System.out.println("Found " + beatportTracks.size() + " tracks");
 
-            return beatportTracks;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return beatportTracks;
     }
 
     private BeatportTrack toTrack(Element trackElement) {
@@ -89,10 +134,17 @@ public class BeatPortParserService {
     }
 
     public BeatportPlaylist parse(String playlistUrl) {
+        return parse(playlistUrl, fetchDocument(playlistUrl));
+    }
+
+    /**
+     * Parses an already fetched chart page, so the page is only downloaded once per chart.
+     */
+    public BeatportPlaylist parse(String playlistUrl, Document doc) {
         return new BeatportPlaylist(
                 playlistUrl,
-                getPlaylistTitle(playlistUrl),
-                getTracks(playlistUrl)
+                getPlaylistTitle(playlistUrl, doc),
+                getTracks(playlistUrl, doc)
         );
     }
 
@@ -100,18 +152,24 @@ public class BeatPortParserService {
         return trackElement.select("span[class^=TracksTable]").text();
     }
 
-    private String getPlaylistTitle(String url) {
-        try {
-            URI beatportUri = URI.create(url);
-            String htmlData = IOUtils.toString(beatportUri, StandardCharsets.UTF_8);
-            Document doc = Jsoup.parse(htmlData);
-            Element titleElement = doc.select("div[class^=TitleControls]").last();
+    private String getPlaylistTitle(String url, Document doc) {
+        Element titleElement = doc.select("div[class^=TitleControls]").last();
 
-            if (titleElement == null) {
-                throw new RuntimeException("Could not find title element for url: " + url);
-            }
+        if (titleElement == null) {
+            throw new RuntimeException("Could not find title element for url: " + url);
+        }
+
+        return titleElement.text().trim() + SUFFIX_BEATPORT_TOP_100;
+    }
 
-            return titleElement.text().trim() + SUFFIX_BEATPORT_TOP_100;
+    private Document fetchDocument(String url) {
+        try {
+            URLConnection connection = URI.create(url).toURL().openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            try (InputStream page = connection.getInputStream()) {
+                return Jsoup.parse(IOUtils.toString(page, StandardCharsets.UTF_8));
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,25 @@
+package de.rouhim.beatporttospotify.beatport;
+
+/**
+ * A configured beatport chart. A BEATPORT_URLS entry may set its own schedule interval in minutes,
+ * e.g. {@code https://www.beatport.com/genre/psy-trance/13/top-100|360}.
+ *
+ * @param intervalMinutes null if the chart uses the default interval
+ */
+public record ChartConfig(String url, Integer intervalMinutes) {
+    private static final String INTERVAL_SEPARATOR = "|";
+
+    public static ChartConfig parse(String entry) {
+        String trimmed = entry.trim();
+        int separatorIndex = trimmed.lastIndexOf(INTERVAL_SEPARATOR);
+
+        if (separatorIndex < 0) {
+            return new ChartConfig(trimmed, null);
+        }
+
+        return new ChartConfig(
+                trimmed.substring(0, separatorIndex).trim(),
+                Integer.parseInt(trimmed.substring(separatorIndex + 1).trim())
+        );
+    }
+}
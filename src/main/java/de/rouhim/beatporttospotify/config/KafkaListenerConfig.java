@@ -0,0 +1,38 @@
+package de.rouhim.beatporttospotify.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.ContainerCustomizer;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+
+@Configuration
+public class KafkaListenerConfig {
+    public static final String ASYNC_ACK_CONTAINER_FACTORY = "asyncAckContainerFactory";
+
+    /**
+     * For listeners that hand their records to a worker pool and acknowledge them later, possibly out of order.
+     * The container commits an offset only once all records before it were acknowledged.
+     */
+    @Bean(ASYNC_ACK_CONTAINER_FACTORY)
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> asyncAckContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> consumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, consumerFactory);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setAsyncAcks(true);
+        return factory;
+    }
+
+    // With deferred startup the listeners are started once the spotify client is ready, see DeferredStartupService
+    @Bean
+    @ConditionalOnProperty(name = "startup.deferred", havingValue = "true")
+    public ContainerCustomizer<Object, Object, ConcurrentMessageListenerContainer<Object, Object>> deferredStartupContainerCustomizer() {
+        return container -> container.setAutoStartup(false);
+    }
+}
@@ -0,0 +1,49 @@
+package de.rouhim.beatporttospotify.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.annotation.EnableKafkaRetryTopic;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.retrytopic.RetryTopicConfiguration;
+import org.springframework.kafka.retrytopic.RetryTopicConfigurationBuilder;
+
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.DEAD_LETTER_TOPIC_SUFFIX;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.RETRYABLE_TOPICS;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.RETRY_TOPIC_SUFFIX;
+
+/**
+ * Failed stage messages are not re-delivered on the same partition, they are forwarded to retry topics
+ * with increasing delays (10s, 30s, 90s) and finally to the dead letter topic of the stage.
+ * So a failing chart or a rate limit does not stall the messages behind it.
+ * The retry topics have as many partitions as the stage topics, so retries are processed in parallel as well.
+ */
+@Configuration
+@EnableKafkaRetryTopic
+public class KafkaRetryTopicConfig {
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long INITIAL_BACKOFF_MILLIS = 10_000;
+    private static final double BACKOFF_MULTIPLIER = 3;
+    private static final long MAX_BACKOFF_MILLIS = 300_000;
+
+    @Bean
+    public RetryTopicConfiguration stageRetryTopicConfiguration(KafkaTemplate<String, String> kafkaStringMessage,
+                                                                @Value("${pipeline.partitions:12}") int partitions) {
+        return RetryTopicConfigurationBuilder
+                .newInstance()
+                .includeTopics(RETRYABLE_TOPICS)
+                // -1 for the replication factor of the broker
+                .autoCreateTopicsWith(partitions, (short) -1)
+                .maxAttempts(MAX_ATTEMPTS)
+                .exponentialBackoff(INITIAL_BACKOFF_MILLIS, BACKOFF_MULTIPLIER, MAX_BACKOFF_MILLIS)
+                .retryTopicSuffix(RETRY_TOPIC_SUFFIX)
+                .dltSuffix(DEAD_LETTER_TOPIC_SUFFIX)
+                .suffixTopicsWithIndexValues()
+                // A payload that can not be read will never succeed, send it to the dead letter topic right away
+                .notRetryOn(JsonProcessingException.class)
+                .traversingCauses()
+                .dltHandlerMethod("deadLetterService", "handleDeadLetter")
+                .create(kafkaStringMessage);
+    }
+}
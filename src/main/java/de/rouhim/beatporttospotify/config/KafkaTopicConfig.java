@@ -10,6 +10,7 @@ import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.core.KafkaAdmin;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Configuration
@@ -20,16 +21,48 @@ public class KafkaTopicConfig {
     public static final String KAFKA_TOPIC_SPOTIFY_PLAYLIST_CREATED = "spotify.playlist.created";
     public static final String KAFKA_TOPIC_SPOTIFY_PLAYLIST_UPDATED = "spotify.playlist.updated";
     public static final String KAFKA_TOPIC_COVER_IMAGE_GENERATED = "cover.image.generated";
+    public static final String KAFKA_TOPIC_DEAD_LETTER_REPLAY_REQUESTED = "dead.letter.replay.requested";
+    public static final String KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_REQUESTED = "spotify.track.match.requested";
+    public static final String KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_DEFERRED = "spotify.track.match.deferred";
+    public static final String KAFKA_TOPIC_SPOTIFY_TRACK_MATCHED = "spotify.track.matched";
+    public static final String KAFKA_TOPIC_SPOTIFY_PLAYLIST_MATCHED = "spotify.playlist.matched";
+    public static final String KAFKA_TOPIC_SYNC_PROGRESS = "sync.progress";
+
+    public static final String RETRY_TOPIC_SUFFIX = "-retry";
+    public static final String DEAD_LETTER_TOPIC_SUFFIX = "-dlt";
+
+    // Topics of the stages that are retried non-blocking and end up in a dead letter topic
+    public static final List<String> RETRYABLE_TOPICS = List.of(
+            KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_URL_OBTAINED,
+            KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_PARSED,
+            KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_REQUESTED,
+            KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_DEFERRED,
+            KAFKA_TOPIC_SPOTIFY_TRACK_MATCHED,
+            KAFKA_TOPIC_SPOTIFY_PLAYLIST_MATCHED,
+            KAFKA_TOPIC_SPOTIFY_PLAYLIST_CREATED,
+            KAFKA_TOPIC_SPOTIFY_PLAYLIST_UPDATED,
+            KAFKA_TOPIC_COVER_IMAGE_GENERATED
+    );
 
 
     @Value(value = "${spring.kafka.bootstrap-servers}")
     private String bootstrapAddress;
 
+    // Tracks, and charts keyed by account, are processed in parallel by as many consumers as there are partitions
+    @Value(value = "${pipeline.partitions:12}")
+    private int partitions;
+
+    // Disabled for the class data sharing training run of the container build, which has no broker
+    @Value(value = "${spring.kafka.admin.auto-create:true}")
+    private boolean autoCreateTopics;
+
     @Bean
     public KafkaAdmin kafkaAdmin() {
         Map<String, Object> configs = new HashMap<>();
         configs.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapAddress);
-        return new KafkaAdmin(configs);
+        KafkaAdmin kafkaAdmin = new KafkaAdmin(configs);
+        kafkaAdmin.setAutoCreate(autoCreateTopics);
+        return kafkaAdmin;
     }
 
     @Bean
@@ -43,6 +76,7 @@ public class KafkaTopicConfig {
     public NewTopic topic2() {
         return TopicBuilder
                 .name(KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_URL_OBTAINED)
+                .partitions(partitions)
                 .build();
     }
 
@@ -50,6 +84,7 @@ public class KafkaTopicConfig {
     public NewTopic topic3() {
         return TopicBuilder
                 .name(KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_PARSED)
+                .partitions(partitions)
                 .build();
     }
 
@@ -57,6 +92,7 @@ public class KafkaTopicConfig {
     public NewTopic topic4() {
         return TopicBuilder
                 .name(KAFKA_TOPIC_SPOTIFY_PLAYLIST_CREATED)
+                .partitions(partitions)
                 .build();
     }
 
@@ -64,6 +100,7 @@ public class KafkaTopicConfig {
     public NewTopic topic5() {
         return TopicBuilder
                 .name(KAFKA_TOPIC_SPOTIFY_PLAYLIST_UPDATED)
+                .partitions(partitions)
                 .build();
     }
 
@@ -71,6 +108,54 @@ public class KafkaTopicConfig {
     public NewTopic topic6() {
         return TopicBuilder
                 .name(KAFKA_TOPIC_COVER_IMAGE_GENERATED)
+                .partitions(partitions)
+                .build();
+    }
+
+    @Bean
+    public NewTopic topic7() {
+        return TopicBuilder
+                .name(KAFKA_TOPIC_DEAD_LETTER_REPLAY_REQUESTED)
+                .build();
+    }
+
+    @Bean
+    public NewTopic topic8() {
+        return TopicBuilder
+                .name(KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_REQUESTED)
+                .partitions(partitions)
+                .build();
+    }
+
+    @Bean
+    public NewTopic topic9() {
+        return TopicBuilder
+                .name(KAFKA_TOPIC_SPOTIFY_TRACK_MATCHED)
+                .partitions(partitions)
+                .build();
+    }
+
+    @Bean
+    public NewTopic topic10() {
+        return TopicBuilder
+                .name(KAFKA_TOPIC_SPOTIFY_PLAYLIST_MATCHED)
+                .partitions(partitions)
+                .build();
+    }
+
+    @Bean
+    public NewTopic topic12() {
+        return TopicBuilder
+                .name(KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_DEFERRED)
+                .partitions(partitions)
+                .build();
+    }
+
+    // A single partition, every instance reads it by manual assignment, see OnDemandSyncService
+    @Bean
+    public NewTopic topic11() {
+        return TopicBuilder
+                .name(KAFKA_TOPIC_SYNC_PROGRESS)
                 .build();
     }
 }
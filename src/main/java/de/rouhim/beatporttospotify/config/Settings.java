@@ -14,18 +14,26 @@ import java.util.Optional;
 public class Settings {
 
     private static final Logger logger = LoggerFactory.getLogger(Settings.class);
+    private static final String DEFAULT_DATA_DIR = "./data";
+    // Uses the env and persistent values without account suffix
+    public static final String DEFAULT_ACCOUNT = "default";
 
     // Writes data to file
     public static void savePersistentValue(PersistentValue key, String value) {
+        savePersistentValue(key, DEFAULT_ACCOUNT, value);
+    }
+
+    // Writes data of the given account to file
+    public static void savePersistentValue(PersistentValue key, String accountId, String value) {
         if (!StringUtils.hasText(value)) {
             logger.warn("Trying to save empty value for key: {}", key);
             return;
         }
 
         try {
-            File dataDir = new File("./data");
+            File dataDir = getDataDir();
             dataDir.mkdirs();
-            File file = new File(dataDir, key.name());
+            File file = new File(dataDir, accountScopedName(key.name(), accountId));
             FileUtils.writeStringToFile(file, value, "UTF-8");
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -34,10 +42,15 @@ public class Settings {
 
     // Reads data from file
     public static Optional<String> readPersistentValue(PersistentValue key) {
+        return readPersistentValue(key, DEFAULT_ACCOUNT);
+    }
+
+    // Reads data of the given account from file
+    public static Optional<String> readPersistentValue(PersistentValue key, String accountId) {
         try {
-            File dataDir = new File("./data");
+            File dataDir = getDataDir();
             dataDir.mkdirs();
-            File file = new File(dataDir, key.name());
+            File file = new File(dataDir, accountScopedName(key.name(), accountId));
             if (!file.exists()) {
                 return Optional.empty();
             }
@@ -48,37 +61,88 @@ public class Settings {
         }
     }
 
+    // Returns the directory persistent values are stored in
+    public static File getDataDir() {
+        return new File(readString(EnvValue.DATA_DIR).orElse(DEFAULT_DATA_DIR));
+    }
+
     // Reads the given env value as a int
     public static int readInt(EnvValue envValue) {
-        String value = System.getenv(envValue.name());
+        String value = readValue(envValue);
         return Integer.parseInt(value);
     }
 
     // Reads the given env value as a String
     public static Optional<String> readString(EnvValue envValue) {
-        return Optional.ofNullable(System.getenv(envValue.name()));
+        return Optional.ofNullable(readValue(envValue));
     }
 
     // Reads the given env value as a bool
     public static boolean readBool(EnvValue envValue) {
-        String value = System.getenv(envValue.name());
+        String value = readValue(envValue);
         return Boolean.parseBoolean(value);
     }
 
     // Reads the given env value as a String list
     public static List<String> readStringList(EnvValue envValue) {
-        String value = System.getenv(envValue.name());
+        String value = readValue(envValue);
         return Arrays.asList(value.split(","));
     }
 
+    // Reads the env value of the given account, e.g. SPOTIFY_CLIENT_ID_ALICE for account alice
+    public static Optional<String> readString(EnvValue envValue, String accountId) {
+        return Optional.ofNullable(readValue(accountScopedName(envValue.name(), accountId)));
+    }
+
+    // Reads the env value of the given account as a String list
+    public static List<String> readStringList(EnvValue envValue, String accountId) {
+        return readString(envValue, accountId)
+                .map(value -> Arrays.asList(value.split(",")))
+                .orElse(List.of());
+    }
+
+    // Ids of the configured spotify accounts, the default account if SPOTIFY_ACCOUNTS is not set
+    public static List<String> readAccountIds() {
+        return readString(EnvValue.SPOTIFY_ACCOUNTS)
+                .map(value -> Arrays.stream(value.split(","))
+                        .map(String::trim)
+                        .filter(StringUtils::hasText)
+                        .toList())
+                .filter(accountIds -> !accountIds.isEmpty())
+                .orElse(List.of(DEFAULT_ACCOUNT));
+    }
+
+    private static String readValue(EnvValue envValue) {
+        return readValue(envValue.name());
+    }
+
+    // A system property with the same name takes precedence over the env value, e.g. for tests
+    private static String readValue(String name) {
+        return System.getProperty(name, System.getenv(name));
+    }
+
+    private static String accountScopedName(String name, String accountId) {
+        if (accountId == null || DEFAULT_ACCOUNT.equals(accountId)) {
+            return name;
+        }
+        return name + "_" + accountId.toUpperCase();
+    }
+
     /**
      * Deletes the persistent value
      */
     public static void deletePersistentValue(PersistentValue persistentValue) {
+        deletePersistentValue(persistentValue, DEFAULT_ACCOUNT);
+    }
+
+    /**
+     * Deletes the persistent value of the given account
+     */
+    public static void deletePersistentValue(PersistentValue persistentValue, String accountId) {
         try {
-            File dataDir = new File("./data");
+            File dataDir = getDataDir();
             dataDir.mkdirs();
-            File file = new File(dataDir, persistentValue.name());
+            File file = new File(dataDir, accountScopedName(persistentValue.name(), accountId));
             file.delete();
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -91,7 +155,12 @@ public class Settings {
         SCHEDULE_RATE_MINUTES,
         GENERATE_COVER_IMAGE,
         SPOTIFY_CLIENT_ID,
-        SPOTIFY_CLIENT_SECRET
+        SPOTIFY_CLIENT_SECRET,
+        COVER_IMAGE_URL,
+        COVER_IMAGE_MAX_BYTES,
+        DATA_DIR,
+        SPOTIFY_ACCOUNTS,
+        SPOTIFY_REQUESTS_PER_SECOND
     }
 
     public enum PersistentValue {
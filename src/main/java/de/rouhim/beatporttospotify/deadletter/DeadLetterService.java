@@ -0,0 +1,149 @@
+package de.rouhim.beatporttospotify.deadletter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.rouhim.beatporttospotify.matching.TrackMatchAggregator;
+import de.rouhim.beatporttospotify.matching.TrackMatchRequest;
+import de.rouhim.beatporttospotify.matching.TrackMatchResult;
+import de.rouhim.beatporttospotify.sync.PipelineProducer;
+import de.rouhim.beatporttospotify.sync.SyncProgress;
+import de.rouhim.beatporttospotify.sync.SyncProgressPublisher;
+import de.rouhim.beatporttospotify.sync.SyncRun;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.List;
+
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.DEAD_LETTER_TOPIC_SUFFIX;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_DEAD_LETTER_REPLAY_REQUESTED;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SPOTIFY_TRACK_MATCHED;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_DEFERRED;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_REQUESTED;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.RETRYABLE_TOPICS;
+
+/**
+ * Logs messages that exhausted all retries and replays them to their original stage on request.
+ * A replay is requested by sending the stage topic name (or an empty message for all stages)
+ * to {@value de.rouhim.beatporttospotify.config.KafkaTopicConfig#KAFKA_TOPIC_DEAD_LETTER_REPLAY_REQUESTED}.
+ */
+@Service
+public class DeadLetterService {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String REPLAY_GROUP_ID = "dead-letter-replay";
+    private static final Duration REPLAY_POLL_TIMEOUT = Duration.ofSeconds(5);
+    private static final List<String> TRANSIENT_HEADER_PREFIXES = List.of("kafka_dlt-", "retry_topic-");
+
+    private final Logger logger = LoggerFactory.getLogger(DeadLetterService.class);
+
+    private final PipelineProducer pipelineProducer;
+    private final ConsumerFactory<String, String> consumerFactory;
+    private final SyncProgressPublisher syncProgressPublisher;
+    private final TrackMatchAggregator trackMatchAggregator;
+
+    public DeadLetterService(PipelineProducer pipelineProducer,
+                             ConsumerFactory<String, String> consumerFactory,
+                             SyncProgressPublisher syncProgressPublisher,
+                             TrackMatchAggregator trackMatchAggregator) {
+        this.pipelineProducer = pipelineProducer;
+        this.consumerFactory = consumerFactory;
+        this.syncProgressPublisher = syncProgressPublisher;
+        this.trackMatchAggregator = trackMatchAggregator;
+    }
+
+    // Invoked by the retry topic infrastructure for every message in a dead letter topic
+    public void handleDeadLetter(String payload,
+                                 @Header(KafkaHeaders.RECEIVED_TOPIC) String deadLetterTopic,
+                                 @Header(name = KafkaHeaders.DLT_EXCEPTION_MESSAGE, required = false) String exceptionMessage,
+                                 @Header(name = SyncRun.HEADER_RUN_ID, required = false) String runId,
+                                 Acknowledgment acknowledgment) {
+        logger.error("Message moved to {} after all retries failed: {} - payload: {}",
+                deadLetterTopic,
+                exceptionMessage,
+                StringUtils.truncate(payload, 200)
+        );
+        // A single track that could not be matched does not fail the chart, it is published without the track
+        if (deadLetterTopic.startsWith(KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_REQUESTED) || deadLetterTopic.startsWith(KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_DEFERRED)) {
+            recordNoMatch(payload, runId);
+        } else if (!deadLetterTopic.startsWith(KAFKA_TOPIC_SPOTIFY_TRACK_MATCHED)) {
+            syncProgressPublisher.publish(runId, SyncProgress.Stage.FAILED, 0, 0, exceptionMessage);
+        }
+        acknowledgment.acknowledge();
+    }
+
+    // So the chart is published once all other tracks are matched, instead of waiting for the aggregation timeout
+    private void recordNoMatch(String payload, String runId) {
+        try {
+            TrackMatchRequest request = objectMapper.readValue(payload, TrackMatchRequest.class);
+            trackMatchAggregator.recordResult(new TrackMatchResult(request.aggregationId(), request.position(), request.total(), null), runId);
+        } catch (JsonProcessingException e) {
+            logger.error("Could not read dead letter track match request, its chart is published once it timed out", e);
+        }
+    }
+
+    @KafkaListener(topics = KAFKA_TOPIC_DEAD_LETTER_REPLAY_REQUESTED)
+    public void consumeReplayRequested(@Payload(required = false) String stageTopic, Acknowledgment acknowledgment) {
+        logger.info("Consumed message from topic: {} with stage: {}", KAFKA_TOPIC_DEAD_LETTER_REPLAY_REQUESTED, stageTopic);
+
+        List<String> stageTopics = StringUtils.hasText(stageTopic) ? List.of(stageTopic.trim()) : RETRYABLE_TOPICS;
+        stageTopics.forEach(this::replay);
+        acknowledgment.acknowledge();
+    }
+
+    /**
+     * Sends every dead letter of the given stage, that was not replayed yet, back to the stage topic.
+     *
+     * @return number of replayed messages
+     */
+    public int replay(String stageTopic) {
+        if (!RETRYABLE_TOPICS.contains(stageTopic)) {
+            logger.warn("Unknown stage topic for dead letter replay: {}", stageTopic);
+            return 0;
+        }
+
+        String deadLetterTopic = stageTopic + DEAD_LETTER_TOPIC_SUFFIX;
+        int replayed = 0;
+
+        // A dedicated consumer group remembers which dead letters were already replayed
+        try (Consumer<String, String> consumer = consumerFactory.createConsumer(REPLAY_GROUP_ID, null, null)) {
+            consumer.subscribe(List.of(deadLetterTopic));
+
+            ConsumerRecords<String, String> records = consumer.poll(REPLAY_POLL_TIMEOUT);
+            while (!records.isEmpty()) {
+                for (ConsumerRecord<String, String> record : records) {
+                    pipelineProducer.send(toReplayRecord(stageTopic, record)).join();
+                    replayed++;
+                }
+                consumer.commitSync();
+                records = consumer.poll(REPLAY_POLL_TIMEOUT);
+            }
+        }
+
+        logger.info("Replayed {} dead letters from {} to {}", replayed, deadLetterTopic, stageTopic);
+        return replayed;
+    }
+
+    // Drops the retry and failure headers, so the replayed message gets the full retry budget again
+    private static ProducerRecord<String, String> toReplayRecord(String stageTopic, ConsumerRecord<String, String> record) {
+        RecordHeaders headers = new RecordHeaders();
+        for (org.apache.kafka.common.header.Header header : record.headers()) {
+            if (TRANSIENT_HEADER_PREFIXES.stream().noneMatch(header.key()::startsWith)) {
+                headers.add(header);
+            }
+        }
+        return new ProducerRecord<>(stageTopic, null, record.key(), record.value(), headers);
+    }
+}
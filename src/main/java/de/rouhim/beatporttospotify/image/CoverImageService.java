@@ -1,24 +1,25 @@
 package de.rouhim.beatporttospotify.image;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import de.rouhim.beatporttospotify.config.Settings;
+import de.rouhim.beatporttospotify.resilience.DependencyGuard;
 import de.rouhim.beatporttospotify.spotify.SpotifyPlaylistDto;
+import de.rouhim.beatporttospotify.sync.IdempotencyService;
+import de.rouhim.beatporttospotify.sync.PipelineProducer;
+import de.rouhim.beatporttospotify.sync.SyncRun;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.annotation.KafkaListeners;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Service;
 
-import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
@@ -26,8 +27,11 @@ import java.net.URL;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
 
 import static de.rouhim.beatporttospotify.beatport.BeatPortParserService.SUFFIX_BEATPORT_TOP_100;
+import static de.rouhim.beatporttospotify.config.KafkaListenerConfig.ASYNC_ACK_CONTAINER_FACTORY;
 import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_COVER_IMAGE_GENERATED;
 import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SPOTIFY_PLAYLIST_CREATED;
 import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SPOTIFY_PLAYLIST_UPDATED;
@@ -39,61 +43,108 @@ public class CoverImageService {
     private static final String FONT_NAME = "Montserrat Regular";
     private static final ObjectMapper objectMapper = new ObjectMapper();
     private static final String UNSPLASH_COLLECTION_URL = "https://source.unsplash.com/collection/9535011/500x500";
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    // Spotify accepts at most 256 KB of base64, which encodes 3 bytes in 4 characters
+    private static final int SPOTIFY_MAX_COVER_BYTES = 256 * 1024 / 4 * 3;
+    private static final String LISTENER_ID_PLAYLIST_CREATED = "cover-render-playlist-created";
+    private static final String LISTENER_ID_PLAYLIST_UPDATED = "cover-render-playlist-updated";
+    static final List<String> RENDER_LISTENER_IDS = List.of(LISTENER_ID_PLAYLIST_CREATED, LISTENER_ID_PLAYLIST_UPDATED);
+
+    // Registers the font on first use, so AWT is not initialized before the first cover is rendered
+    private static final class FontRegistration {
+        static {
+            try {
+                URL resource = CoverImageService.class.getResource(FONT_FILE);
+                InputStream fontDataStream = resource.openStream();
+
+                GraphicsEnvironment
+                        .getLocalGraphicsEnvironment()
+                        .registerFont(Font.createFont(Font.TRUETYPE_FONT, fontDataStream)
+                                .deriveFont(48f));
+            } catch (Exception e) {
+                throw new RuntimeException("Could not load font file: " + FONT_FILE, e);
+            }
+        }
 
-    static {
-        try {
-            URL resource = CoverImageService.class.getResource(FONT_FILE);
-            InputStream fontDataStream = resource.openStream();
-
-            GraphicsEnvironment
-                    .getLocalGraphicsEnvironment()
-                    .registerFont(Font.createFont(Font.TRUETYPE_FONT, fontDataStream)
-                            .deriveFont(48f));
-        } catch (Exception e) {
-            throw new RuntimeException("Could not load font file: " + FONT_FILE, e);
+        static void ensureRegistered() {
+            // the static initializer does the work
         }
     }
 
-    private final KafkaTemplate<String, String> kafkaStringMessage;
-
-    public CoverImageService(KafkaTemplate<String, String> kafkaStringMessage) {
-        this.kafkaStringMessage = kafkaStringMessage;
+    private final PipelineProducer pipelineProducer;
+    private final IdempotencyService idempotencyService;
+    private final CoverRenderPool coverRenderPool;
+    private final DependencyGuard dependencyGuard;
+
+    public CoverImageService(PipelineProducer pipelineProducer,
+                             IdempotencyService idempotencyService,
+                             CoverRenderPool coverRenderPool,
+                             DependencyGuard dependencyGuard) {
+        this.pipelineProducer = pipelineProducer;
+        this.idempotencyService = idempotencyService;
+        this.coverRenderPool = coverRenderPool;
+        this.dependencyGuard = dependencyGuard;
     }
 
     public static byte[] generateImage(String textToWriteOnImage) {
         try {
-            // Read image from URL
-            URI imgUrl = URI.create(UNSPLASH_COLLECTION_URL);
-            byte[] imageBytes = readFromUrl(imgUrl);
-            BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageBytes));
+            return generateImage(textToWriteOnImage, readBackgroundImage());
+        } catch (IOException e) {
+            logger.error("Could not generate image", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param backgroundImageBytes encoded background image, see {@link #readBackgroundImage()}
+     */
+    public static byte[] generateImage(String textToWriteOnImage, byte[] backgroundImageBytes) {
+        try {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(backgroundImageBytes));
 
             if (image == null) {
-                throw new RuntimeException("Could not read image from URL: " + imgUrl);
+                throw new RuntimeException("Could not read background image");
             }
 
-            // Write image to file
-            ImageIO.write(image, "jpg", new File("image.jpg"));
-
-            // Determine colors of image
-            Color avgColor = getAverageColorOfImage(image);
-            Color fontColor = determineFontColor(avgColor);
-
-            // Draw text and border on image
-            drawText(image, textToWriteOnImage, fontColor);
-            drawBorder(image, avgColor);
-
-            return compress(image);
+            return compress(render(image, textToWriteOnImage));
         } catch (Exception e) {
             logger.error("Could not generate image", e);
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Draws the given text and a border onto the background image, the image is modified in place.
+     */
+    public static BufferedImage render(BufferedImage image, String textToWriteOnImage) {
+        FontRegistration.ensureRegistered();
+
+        // Determine colors of image
+        Color avgColor = getAverageColorOfImage(image);
+        Color fontColor = determineFontColor(avgColor);
+
+        // Draw text and border on image
+        drawText(image, textToWriteOnImage, fontColor);
+        drawBorder(image, avgColor);
+
+        return image;
+    }
+
+    // Reads the background image from COVER_IMAGE_URL
+    public static byte[] readBackgroundImage() throws IOException {
+        return readFromUrl(URI.create(Settings.readString(Settings.EnvValue.COVER_IMAGE_URL).orElse(UNSPLASH_COLLECTION_URL)));
+    }
+
     private static byte[] readFromUrl(URI url) throws IOException {
-        try (HttpClient client = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.ALWAYS).build()) {
+        try (HttpClient client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.ALWAYS)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build()) {
             // Follow redirects and set user agent
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(url)
+                    .timeout(REQUEST_TIMEOUT)
                     .header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/125.0.0.0 Safari/537.3")
                     .GET()
                     .build();
@@ -114,20 +165,28 @@ public class CoverImageService {
         }
     }
 
-    private static byte[] compress(BufferedImage image) throws IOException {
-        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
-        ImageOutputStream outputStream = ImageIO.createImageOutputStream(compressed);
+    /**
+     * Encodes the image as jpeg in the best quality that fits into COVER_IMAGE_MAX_BYTES.
+     */
+    public static byte[] compress(BufferedImage image) throws IOException {
+        int maxBytes = Settings.readString(Settings.EnvValue.COVER_IMAGE_MAX_BYTES)
+                .map(Integer::parseInt)
+                .orElse(SPOTIFY_MAX_COVER_BYTES);
 
-        ImageWriter jpgWriter = ImageIO.getImageWritersByFormatName("jpg").next();
-        ImageWriteParam jpgWriteParam = jpgWriter.getDefaultWriteParam();
+        JpegEncoder.Result result = JpegEncoder.encode(image, maxBytes);
 
-        jpgWriteParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-        jpgWriteParam.setCompressionQuality((float) 0.8);
-        jpgWriter.setOutput(outputStream);
-        jpgWriter.write(null, new IIOImage(image, null, null), jpgWriteParam);
-        jpgWriter.dispose();
+        if (!result.withinBudget()) {
+            logger.warn("Cover image exceeds the budget of {} bytes even at the lowest quality", maxBytes);
+        }
+        logger.info("Encoded cover image with {} bytes at quality {} ({} chroma subsampling) in {} ms, {} attempts",
+                result.size(),
+                result.quality(),
+                result.chromaSubsampling() ? "with" : "without",
+                result.encodeNanos() / 1_000_000,
+                result.attempts()
+        );
 
-        return compressed.toByteArray();
+        return result.data();
     }
 
     private static void drawBorder(BufferedImage image, Color avgColor) {
@@ -204,23 +263,42 @@ public class CoverImageService {
         graphics.dispose();
     }
 
+    // Rendering happens on the cover render pool, the records are acknowledged from there
     @KafkaListeners({
-            @KafkaListener(topics = KAFKA_TOPIC_SPOTIFY_PLAYLIST_CREATED),
-            @KafkaListener(topics = KAFKA_TOPIC_SPOTIFY_PLAYLIST_UPDATED)
+            @KafkaListener(id = LISTENER_ID_PLAYLIST_CREATED, idIsGroup = false,
+                    topics = KAFKA_TOPIC_SPOTIFY_PLAYLIST_CREATED, containerFactory = ASYNC_ACK_CONTAINER_FACTORY),
+            @KafkaListener(id = LISTENER_ID_PLAYLIST_UPDATED, idIsGroup = false,
+                    topics = KAFKA_TOPIC_SPOTIFY_PLAYLIST_UPDATED, containerFactory = ASYNC_ACK_CONTAINER_FACTORY)
     })
-    public void consumePlaylistCreated(String playlistJson) throws IOException {
-        logger.info("Consumed message from topic: " + KAFKA_TOPIC_SPOTIFY_PLAYLIST_CREATED);
+    public void consumePlaylistCreated(String playlistJson,
+                                      @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
+                                      @Header(name = SyncRun.HEADER_RUN_ID, required = false) String runId,
+                                      @Header(name = SyncRun.HEADER_ACCOUNT, required = false) String accountId,
+                                      Acknowledgment acknowledgment) throws IOException {
+        logger.info("Consumed message from topic: " + topic);
 
         var spotifyPlaylist = objectMapper.readValue(playlistJson, SpotifyPlaylistDto.class);
 
+        // Created and updated events of the same run need only one cover
+        if (idempotencyService.isProcessed(IdempotencyService.STAGE_COVER_RENDER, runId, spotifyPlaylist.id())) {
+            acknowledgment.acknowledge();
+            return;
+        }
+
         String title = spotifyPlaylist.title().replace(SUFFIX_BEATPORT_TOP_100, "");
 
-        byte[] coverImage = generateImage(title);
+        coverRenderPool.submit(() -> {
+            // An outage of the image source opens its own breaker, playlist syncing is not affected
+            byte[] backgroundImage = dependencyGuard.call(DependencyGuard.COVER_IMAGE_SOURCE, CoverImageService::readBackgroundImage);
+            byte[] coverImage = generateImage(title, backgroundImage);
 
-        String messagePayload = objectMapper.writeValueAsString(
-                new CoverImage(spotifyPlaylist.id(), coverImage)
-        );
+            String messagePayload = objectMapper.writeValueAsString(
+                    new CoverImage(spotifyPlaylist.id(), coverImage)
+            );
+
+            pipelineProducer.send(SyncRun.accountMessage(KAFKA_TOPIC_COVER_IMAGE_GENERATED, SyncRun.accountOrDefault(accountId), messagePayload, runId)).join();
 
-        kafkaStringMessage.send(KAFKA_TOPIC_COVER_IMAGE_GENERATED, messagePayload);
+            idempotencyService.markProcessed(IdempotencyService.STAGE_COVER_RENDER, runId, spotifyPlaylist.id());
+        }, topic, playlistJson, runId, accountId, acknowledgment);
     }
 }
@@ -0,0 +1,202 @@
+package de.rouhim.beatporttospotify.image;
+
+import de.rouhim.beatporttospotify.sync.PipelineProducer;
+import de.rouhim.beatporttospotify.sync.SyncRun;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.DEAD_LETTER_TOPIC_SUFFIX;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.RETRYABLE_TOPICS;
+
+/**
+ * Renders cover images on a bounded pool of worker threads, one per core, so the kafka listener threads
+ * only hand over the render jobs. Once the pool holds more jobs than its capacity, the cover listeners are paused
+ * until it has drained to half. Records that are still delivered meanwhile are queued beyond the capacity.
+ * <p>
+ * AWT runs headless (spring boot default). Fonts, Graphics2D and the jpeg writer of every worker are warmed up
+ * at startup, or right after startup with deferred startup, so the first cover does not pay for it.
+ * <p>
+ * Failed jobs are retried with increasing delays and finally sent to the dead letter topic of their stage.
+ */
+@Service
+public class CoverRenderPool {
+    private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+    static final int CAPACITY = WORKERS * 2;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long INITIAL_RETRY_DELAY_MILLIS = 10_000;
+    private static final String WARM_UP_TITLE = "Warm Up";
+
+    private final Logger logger = LoggerFactory.getLogger(CoverRenderPool.class);
+
+    private final PipelineProducer pipelineProducer;
+    private final KafkaListenerEndpointRegistry listenerRegistry;
+    // Submitted jobs that were not acknowledged yet
+    private final AtomicInteger jobs = new AtomicInteger();
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService retryScheduler;
+
+    @Value("${startup.deferred:false}")
+    private boolean deferredStartup;
+
+    public CoverRenderPool(PipelineProducer pipelineProducer, KafkaListenerEndpointRegistry listenerRegistry) {
+        this.pipelineProducer = pipelineProducer;
+        this.listenerRegistry = listenerRegistry;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "cover-render-" + threadCount.incrementAndGet()));
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "cover-render-retry"));
+    }
+
+    @PostConstruct
+    public void init() throws InterruptedException {
+        if (!deferredStartup) {
+            warmUp();
+        }
+    }
+
+    public void warmUp() throws InterruptedException {
+        long startedAt = System.currentTimeMillis();
+        logger.info("Warming up {} cover render workers, headless: {}", WORKERS, GraphicsEnvironment.isHeadless());
+
+        // Every worker waits for the others, so each worker warms up its own jpeg writer
+        CountDownLatch allStarted = new CountDownLatch(WORKERS);
+        CountDownLatch allWarmedUp = new CountDownLatch(WORKERS);
+        for (int i = 0; i < WORKERS; i++) {
+            workers.execute(() -> {
+                try {
+                    allStarted.countDown();
+                    allStarted.await();
+                    BufferedImage image = new BufferedImage(500, 500, BufferedImage.TYPE_INT_RGB);
+                    CoverImageService.compress(CoverImageService.render(image, WARM_UP_TITLE));
+                } catch (Exception e) {
+                    logger.warn("Could not warm up cover render worker", e);
+                } finally {
+                    allWarmedUp.countDown();
+                }
+            });
+        }
+        allWarmedUp.await();
+
+        logger.info("Cover render workers warmed up in {} ms", System.currentTimeMillis() - startedAt);
+    }
+
+    /**
+     * Renders asynchronously, the record is acknowledged once the job succeeded or was sent to the dead letter topic.
+     * Must be called on the listener thread, which never blocks. If the pool is full, the cover listeners are paused.
+     * Nacking is not an option, the cover listeners acknowledge out of order.
+     */
+    public void submit(RenderJob job, String topic, String payload, String runId, String accountId, Acknowledgment acknowledgment) {
+        if (jobs.incrementAndGet() >= CAPACITY) {
+            setListenersPaused(true);
+            // The pool may have drained before the pause was requested, nobody would resume then
+            if (jobs.get() <= CAPACITY / 2) {
+                setListenersPaused(false);
+            }
+        }
+
+        workers.execute(() -> run(job, topic, payload, runId, accountId, acknowledgment, 1));
+    }
+
+    private void run(RenderJob job, String topic, String payload, String runId, String accountId, Acknowledgment acknowledgment, int attempt) {
+        try {
+            job.run();
+            release(acknowledgment);
+        } catch (Exception e) {
+            if (attempt < MAX_ATTEMPTS) {
+                long delayMillis = INITIAL_RETRY_DELAY_MILLIS * (long) Math.pow(3, attempt - 1);
+                logger.warn("Cover render attempt {} failed, retrying in {} ms: {}", attempt, delayMillis, e.getMessage());
+                retryScheduler.schedule(
+                        () -> workers.execute(() -> run(job, topic, payload, runId, accountId, acknowledgment, attempt + 1)),
+                        delayMillis,
+                        TimeUnit.MILLISECONDS
+                );
+                return;
+            }
+
+            logger.error("Cover render failed after {} attempts", attempt, e);
+            try {
+                sendToDeadLetterTopic(topic, payload, runId, accountId, e);
+            } catch (Exception dltException) {
+                // The cover is rendered again with the next run of the chart
+                logger.error("Could not send failed cover render to the dead letter topic, dropping it: {}",
+                        StringUtils.truncate(payload, 200), dltException);
+            } finally {
+                // Otherwise the offset is never committed and the listeners are never resumed
+                release(acknowledgment);
+            }
+        }
+    }
+
+    private void release(Acknowledgment acknowledgment) {
+        acknowledgment.acknowledge();
+
+        if (jobs.decrementAndGet() <= CAPACITY / 2) {
+            setListenersPaused(false);
+        }
+    }
+
+    private void sendToDeadLetterTopic(String topic, String payload, String runId, String accountId, Exception exception) {
+        // Records of the retry topics belong to the dead letter topic of their stage
+        String stageTopic = RETRYABLE_TOPICS.stream()
+                .filter(topic::startsWith)
+                .findFirst()
+                .orElse(topic);
+
+        ProducerRecord<String, String> message = SyncRun.withAccount(SyncRun.message(stageTopic + DEAD_LETTER_TOPIC_SUFFIX, payload, runId), accountId);
+        message.headers().add(
+                KafkaHeaders.DLT_EXCEPTION_MESSAGE,
+                String.valueOf(exception.getMessage()).getBytes(StandardCharsets.UTF_8)
+        );
+        pipelineProducer.send(message).join();
+    }
+
+    private void setListenersPaused(boolean paused) {
+        for (String listenerId : CoverImageService.RENDER_LISTENER_IDS) {
+            Optional.ofNullable(listenerRegistry.getListenerContainer(listenerId)).ifPresent(container -> {
+                if (paused && !container.isPauseRequested()) {
+                    logger.info("Cover render pool is full, pausing cover listener {}", listenerId);
+                    container.pause();
+                } else if (!paused && container.isPauseRequested()) {
+                    logger.info("Resuming cover listener {}", listenerId);
+                    container.resume();
+                }
+            });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        retryScheduler.shutdownNow();
+        workers.shutdown();
+        if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+            workers.shutdownNow();
+        }
+    }
+
+    @FunctionalInterface
+    public interface RenderJob {
+        void run() throws Exception;
+    }
+}
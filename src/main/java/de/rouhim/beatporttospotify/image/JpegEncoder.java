@@ -0,0 +1,134 @@
+package de.rouhim.beatporttospotify.image;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Encodes jpeg images as good as possible within a byte budget.
+ * <p>
+ * The image is first encoded at the highest quality without chroma subsampling, which keeps colored text sharp.
+ * If that exceeds the budget, the quality is binary searched with 4:2:0 chroma subsampling.
+ * Writers and buffers are reused per thread.
+ */
+public final class JpegEncoder {
+    static final float MAX_QUALITY = 0.92f;
+    static final float MIN_QUALITY = 0.3f;
+    private static final int SEARCH_STEPS = 6;
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+    private static final int INITIAL_BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<ImageWriter> writers =
+            ThreadLocal.withInitial(() -> ImageIO.getImageWritersByFormatName("jpg").next());
+    private static final ThreadLocal<ByteArrayOutputStream> buffers =
+            ThreadLocal.withInitial(() -> new ByteArrayOutputStream(INITIAL_BUFFER_SIZE));
+
+    private JpegEncoder() {
+    }
+
+    /**
+     * @param maxBytes byte budget of the encoded image
+     * @return the encoded image, the smallest possible encoding if even the lowest quality exceeds the budget
+     */
+    public static Result encode(BufferedImage image, int maxBytes) throws IOException {
+        long startedAt = System.nanoTime();
+        int attempts = 1;
+
+        byte[] best = encode(image, MAX_QUALITY, false);
+        float bestQuality = MAX_QUALITY;
+        boolean bestSubsampled = false;
+
+        if (best.length > maxBytes) {
+            float low = MIN_QUALITY;
+            float high = MAX_QUALITY;
+            byte[] smallest = null;
+
+            for (int step = 0; step < SEARCH_STEPS; step++) {
+                float quality = step == 0 ? MIN_QUALITY : (low + high) / 2;
+                byte[] encoded = encode(image, quality, true);
+                attempts++;
+
+                if (encoded.length <= maxBytes) {
+                    best = encoded;
+                    bestQuality = quality;
+                    bestSubsampled = true;
+                    low = quality;
+                } else {
+                    if (step == 0) {
+                        smallest = encoded;
+                        break;
+                    }
+                    high = quality;
+                }
+            }
+
+            // Even the lowest quality does not fit, return the smallest encoding we have
+            if (smallest != null) {
+                best = smallest;
+                bestQuality = MIN_QUALITY;
+                bestSubsampled = true;
+            }
+        }
+
+        return new Result(best, bestQuality, bestSubsampled, attempts, System.nanoTime() - startedAt, best.length <= maxBytes);
+    }
+
+    private static byte[] encode(BufferedImage image, float quality, boolean chromaSubsampling) throws IOException {
+        ImageWriter writer = writers.get();
+        ByteArrayOutputStream buffer = buffers.get();
+        buffer.reset();
+
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+        if (!chromaSubsampling) {
+            disableChromaSubsampling(metadata);
+        }
+
+        try (ImageOutputStream outputStream = new MemoryCacheImageOutputStream(buffer)) {
+            writer.setOutput(outputStream);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            writer.reset();
+        }
+
+        return buffer.toByteArray();
+    }
+
+    // The default jpeg metadata samples the color channels at half resolution (4:2:0), this switches to 4:4:4
+    private static void disableChromaSubsampling(IIOMetadata metadata) throws IOException {
+        Node tree = metadata.getAsTree(JPEG_METADATA_FORMAT);
+        NodeList componentSpecs = ((Element) tree).getElementsByTagName("componentSpec");
+        for (int i = 0; i < componentSpecs.getLength(); i++) {
+            Element componentSpec = (Element) componentSpecs.item(i);
+            componentSpec.setAttribute("HsamplingFactor", "1");
+            componentSpec.setAttribute("VsamplingFactor", "1");
+        }
+        metadata.setFromTree(JPEG_METADATA_FORMAT, tree);
+    }
+
+    /**
+     * @param encodeNanos  time spent on all attempts
+     * @param withinBudget false if even the lowest quality exceeds the budget
+     */
+    public record Result(byte[] data, float quality, boolean chromaSubsampling, int attempts, long encodeNanos,
+                         boolean withinBudget) {
+        public int size() {
+            return data.length;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package de.rouhim.beatporttospotify.matching;
+
+import java.util.List;
+
+/**
+ * A chart with its tracks resolved to spotify uris, in chart order. Tracks without match are left out.
+ */
+public record MatchedPlaylist(String url, String title, List<String> spotifyUris) {
+}
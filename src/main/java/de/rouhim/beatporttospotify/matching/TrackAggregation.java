@@ -0,0 +1,10 @@
+package de.rouhim.beatporttospotify.matching;
+
+/**
+ * Chart of a running aggregation, kept in redis until all tracks are matched or the aggregation timed out.
+ *
+ * @param accountId spotify account the chart is synced to
+ * @param startedAt epoch millis
+ */
+public record TrackAggregation(String aggregationId, String accountId, String url, String title, String runId, int total, long startedAt) {
+}
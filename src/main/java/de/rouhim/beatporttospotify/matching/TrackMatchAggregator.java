@@ -0,0 +1,198 @@
+package de.rouhim.beatporttospotify.matching;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.rouhim.beatporttospotify.spotify.TrackMatchRegistry;
+import de.rouhim.beatporttospotify.sync.PipelineProducer;
+import de.rouhim.beatporttospotify.sync.SyncProgress;
+import de.rouhim.beatporttospotify.sync.SyncProgressPublisher;
+import de.rouhim.beatporttospotify.sync.SyncRun;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SPOTIFY_PLAYLIST_MATCHED;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SPOTIFY_TRACK_MATCHED;
+
+/**
+ * Collects the matched tracks of a chart in redis and publishes the ordered uri list once all tracks are matched.
+ * A track that ended up in the dead letter topic counts as not matched. Any instance may complete an aggregation,
+ * so a rebalance or restart does not lose matched tracks. Only if results got lost, e.g. by a crash,
+ * the aggregation is published with the tracks matched so far once it timed out.
+ */
+@Service
+public class TrackMatchAggregator {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String KEY_PREFIX = "track-aggregation:";
+    private static final String NO_MATCH = "";
+    private static final Duration AGGREGATION_TTL = Duration.ofDays(1);
+    // Far above the retry budget of a track, including rate limit waits and deferrals
+    private static final Duration AGGREGATION_TIMEOUT = Duration.ofHours(2);
+
+    private final Logger logger = LoggerFactory.getLogger(TrackMatchAggregator.class);
+
+    private final PipelineProducer pipelineProducer;
+    private final StringRedisTemplate redisTemplate;
+    private final SyncProgressPublisher syncProgressPublisher;
+    private final TrackMatchRegistry trackMatchRegistry;
+
+    public TrackMatchAggregator(PipelineProducer pipelineProducer,
+                                StringRedisTemplate redisTemplate,
+                                SyncProgressPublisher syncProgressPublisher,
+                                TrackMatchRegistry trackMatchRegistry) {
+        this.pipelineProducer = pipelineProducer;
+        this.redisTemplate = redisTemplate;
+        this.syncProgressPublisher = syncProgressPublisher;
+        this.trackMatchRegistry = trackMatchRegistry;
+    }
+
+    public void start(TrackAggregation aggregation) throws JsonProcessingException {
+        redisTemplate.opsForValue().setIfAbsent(
+                key(aggregation.aggregationId(), "chart"),
+                objectMapper.writeValueAsString(aggregation),
+                AGGREGATION_TTL
+        );
+    }
+
+    @KafkaListener(topics = KAFKA_TOPIC_SPOTIFY_TRACK_MATCHED)
+    public void consumeTrackMatched(String trackMatchResultJson,
+                                    @Header(name = SyncRun.HEADER_RUN_ID, required = false) String runId,
+                                    Acknowledgment acknowledgment) throws Exception {
+        recordResult(objectMapper.readValue(trackMatchResultJson, TrackMatchResult.class), runId);
+        acknowledgment.acknowledge();
+    }
+
+    /**
+     * Records the result of a single track, completes the aggregation once all tracks are recorded.
+     */
+    public void recordResult(TrackMatchResult result, String runId) {
+        String aggregationId = result.aggregationId();
+
+        // Only the first result of a position counts, redelivered results are ignored
+        Boolean added = redisTemplate.opsForValue().setIfAbsent(
+                key(aggregationId, String.valueOf(result.position())),
+                Optional.ofNullable(result.spotifyUri()).orElse(NO_MATCH),
+                AGGREGATION_TTL
+        );
+
+        long matched = Boolean.TRUE.equals(added)
+                ? Optional.ofNullable(redisTemplate.opsForValue().increment(key(aggregationId, "count"))).orElse(0L)
+                : Optional.ofNullable(redisTemplate.opsForValue().get(key(aggregationId, "count"))).map(Long::parseLong).orElse(0L);
+
+        if (Boolean.TRUE.equals(added) && matched == 1) {
+            redisTemplate.expire(key(aggregationId, "count"), AGGREGATION_TTL);
+        }
+        if (Boolean.TRUE.equals(added)) {
+            syncProgressPublisher.publish(runId, SyncProgress.Stage.MATCHED, (int) matched, result.total());
+        }
+
+        if (matched >= result.total()) {
+            loadAggregation(aggregationId).ifPresent(this::complete);
+        }
+    }
+
+    // Publishes aggregations that did not complete in time, e.g. because a result got lost in a crash
+    @Scheduled(fixedDelay = 60_000)
+    public void completeTimedOut() {
+        long timedOutBefore = Instant.now().minus(AGGREGATION_TIMEOUT).toEpochMilli();
+
+        List<String> chartKeys = new ArrayList<>();
+        try (Cursor<String> cursor = redisTemplate.scan(ScanOptions.scanOptions().match(KEY_PREFIX + "*:chart").count(100).build())) {
+            cursor.forEachRemaining(chartKeys::add);
+        }
+
+        chartKeys.stream()
+                .map(chartKey -> redisTemplate.opsForValue().get(chartKey))
+                .flatMap(json -> fromJson(json).stream())
+                .filter(aggregation -> aggregation.startedAt() < timedOutBefore)
+                .forEach(aggregation -> {
+                    logger.warn("Matching of playlist {} timed out", aggregation.title());
+                    complete(aggregation);
+                });
+    }
+
+    private void complete(TrackAggregation aggregation) {
+        String aggregationId = aggregation.aggregationId();
+
+        // Exactly one instance publishes an aggregation
+        Boolean claimed = redisTemplate.opsForValue().setIfAbsent(key(aggregationId, "completed"), Instant.now().toString(), AGGREGATION_TTL);
+        if (!Boolean.TRUE.equals(claimed)) {
+            redisTemplate.delete(key(aggregationId, "chart"));
+            return;
+        }
+
+        List<String> positionKeys = IntStream.range(0, aggregation.total())
+                .mapToObj(position -> key(aggregationId, String.valueOf(position)))
+                .toList();
+        List<String> results = Optional.ofNullable(redisTemplate.opsForValue().multiGet(positionKeys)).orElse(List.of());
+
+        List<String> spotifyUris = results.stream()
+                .filter(uri -> uri != null && !uri.equals(NO_MATCH))
+                .toList();
+        long missing = results.stream().filter(uri -> uri == null).count();
+        if (missing > 0) {
+            logger.warn("Publishing playlist {} without {} tracks whose results got lost", aggregation.title(), missing);
+        }
+
+        try {
+            MatchedPlaylist matchedPlaylist = new MatchedPlaylist(aggregation.url(), aggregation.title(), spotifyUris);
+            pipelineProducer.send(SyncRun.accountMessage(
+                    KAFKA_TOPIC_SPOTIFY_PLAYLIST_MATCHED,
+                    SyncRun.accountOrDefault(aggregation.accountId()),
+                    objectMapper.writeValueAsString(matchedPlaylist),
+                    aggregation.runId()
+            )).join();
+        } catch (Exception e) {
+            // Release the claim, so the next result or the timeout retries the publishing
+            redisTemplate.delete(key(aggregationId, "completed"));
+            throw new RuntimeException(e);
+        }
+
+        logger.info("Matched {} of {} tracks for playlist: {}, {} searches saved so far in run {}",
+                spotifyUris.size(),
+                aggregation.total(),
+                aggregation.title(),
+                trackMatchRegistry.savedSearches(aggregation.runId()),
+                aggregation.runId()
+        );
+
+        List<String> keys = new ArrayList<>(positionKeys);
+        keys.add(key(aggregationId, "chart"));
+        keys.add(key(aggregationId, "count"));
+        redisTemplate.delete(keys);
+    }
+
+    private Optional<TrackAggregation> loadAggregation(String aggregationId) {
+        return fromJson(redisTemplate.opsForValue().get(key(aggregationId, "chart")));
+    }
+
+    private Optional<TrackAggregation> fromJson(String json) {
+        if (json == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(objectMapper.readValue(json, TrackAggregation.class));
+        } catch (JsonProcessingException e) {
+            logger.error("Could not read track aggregation: {}", json, e);
+            return Optional.empty();
+        }
+    }
+
+    private static String key(String aggregationId, String part) {
+        return KEY_PREFIX + aggregationId + ":" + part;
+    }
+}
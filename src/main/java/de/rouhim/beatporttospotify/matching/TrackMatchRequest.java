@@ -0,0 +1,13 @@
+package de.rouhim.beatporttospotify.matching;
+
+import de.rouhim.beatporttospotify.beatport.BeatportTrack;
+
+/**
+ * A single chart track to be matched against spotify.
+ *
+ * @param aggregationId identifies the chart aggregation the result belongs to
+ * @param position      position of the track in the chart, starting at 0
+ * @param total         number of tracks in the chart
+ */
+public record TrackMatchRequest(String aggregationId, int position, int total, BeatportTrack track) {
+}
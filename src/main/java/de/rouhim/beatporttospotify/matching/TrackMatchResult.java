@@ -0,0 +1,7 @@
+package de.rouhim.beatporttospotify.matching;
+
+/**
+ * @param spotifyUri null if no spotify track matched
+ */
+public record TrackMatchResult(String aggregationId, int position, int total, String spotifyUri) {
+}
@@ -0,0 +1,95 @@
+package de.rouhim.beatporttospotify.matching;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.rouhim.beatporttospotify.beatport.BeatportPlaylist;
+import de.rouhim.beatporttospotify.sync.IdempotencyService;
+import de.rouhim.beatporttospotify.sync.PipelineProducer;
+import de.rouhim.beatporttospotify.sync.SyncRun;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_PARSED;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SPOTIFY_PLAYLIST_MATCHED;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_REQUESTED;
+
+/**
+ * Splits a parsed chart into one match request per track, so the tracks of a chart are matched by all instances.
+ * The results are put back together by the {@link TrackMatchAggregator}.
+ */
+@Service
+public class TrackMatchSplitter {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Logger logger = LoggerFactory.getLogger(TrackMatchSplitter.class);
+
+    private final PipelineProducer pipelineProducer;
+    private final TrackMatchAggregator trackMatchAggregator;
+
+    public TrackMatchSplitter(PipelineProducer pipelineProducer, TrackMatchAggregator trackMatchAggregator) {
+        this.pipelineProducer = pipelineProducer;
+        this.trackMatchAggregator = trackMatchAggregator;
+    }
+
+    @KafkaListener(topics = KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_PARSED)
+    public void consumePlaylistParsed(String beatportPlaylistJson,
+                                      @Header(name = SyncRun.HEADER_RUN_ID, required = false) String runId,
+                                      @Header(name = SyncRun.HEADER_ACCOUNT, required = false) String accountId,
+                                      Acknowledgment acknowledgment) throws Exception {
+        BeatportPlaylist beatportPlaylist = objectMapper.readValue(beatportPlaylistJson, BeatportPlaylist.class);
+        logger.info("Consumed message from topic: {} with playlist: {}", KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_PARSED, beatportPlaylist.title());
+
+        int total = beatportPlaylist.tracks().size();
+
+        // Nothing to match, write the empty playlist right away
+        if (total == 0) {
+            MatchedPlaylist matchedPlaylist = new MatchedPlaylist(beatportPlaylist.url(), beatportPlaylist.title(), List.of());
+            pipelineProducer.send(SyncRun.accountMessage(
+                    KAFKA_TOPIC_SPOTIFY_PLAYLIST_MATCHED,
+                    SyncRun.accountOrDefault(accountId),
+                    objectMapper.writeValueAsString(matchedPlaylist),
+                    runId
+            )).join();
+            acknowledgment.acknowledge();
+            return;
+        }
+
+        // A redelivered chart of the same run joins the existing aggregation instead of starting a second one
+        String account = SyncRun.accountOrDefault(accountId);
+        String aggregationId = runId == null
+                ? SyncRun.newRunId()
+                : IdempotencyService.fingerprint(account + "|" + runId + beatportPlaylistJson);
+        trackMatchAggregator.start(new TrackAggregation(
+                aggregationId,
+                account,
+                beatportPlaylist.url(),
+                beatportPlaylist.title(),
+                runId,
+                total,
+                System.currentTimeMillis()
+        ));
+
+        List<CompletableFuture<?>> sent = new ArrayList<>();
+        for (int position = 0; position < total; position++) {
+            TrackMatchRequest request = new TrackMatchRequest(aggregationId, position, total, beatportPlaylist.tracks().get(position));
+            // Tracks are spread over all partitions, the header tells which account to match them with
+            sent.add(pipelineProducer.send(SyncRun.withAccount(SyncRun.message(
+                    KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_REQUESTED,
+                    aggregationId + ":" + position,
+                    objectMapper.writeValueAsString(request),
+                    runId
+            ), account)));
+        }
+        CompletableFuture.allOf(sent.toArray(CompletableFuture[]::new)).join();
+
+        logger.info("Requested matching of {} tracks for playlist: {}", total, beatportPlaylist.title());
+        acknowledgment.acknowledge();
+    }
+}
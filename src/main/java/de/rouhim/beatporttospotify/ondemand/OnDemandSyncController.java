@@ -0,0 +1,83 @@
+package de.rouhim.beatporttospotify.ondemand;
+
+import de.rouhim.beatporttospotify.beatport.BeatPortConfigService;
+import de.rouhim.beatporttospotify.beatport.ChartConfig;
+import de.rouhim.beatporttospotify.config.Settings;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Syncs one chart right away and streams the progress as server sent events, e.g.
+ * <pre>
+ * curl -N -X POST 'http://localhost:8080/api/sync?genre=tech-house'
+ * curl -N -X POST 'http://localhost:8080/api/sync?url=https://www.beatport.com/genre/tech-house/11/top-100&amp;account=alice'
+ * </pre>
+ * Events: run, requested, fetched, parsed, matched (done of total tracks), written, cover_uploaded, completed or failed.
+ */
+@RestController
+@RequestMapping("/api/sync")
+public class OnDemandSyncController {
+    private static final String BEATPORT_HOST = "beatport.com";
+
+    private final OnDemandSyncService onDemandSyncService;
+
+    public OnDemandSyncController(OnDemandSyncService onDemandSyncService) {
+        this.onDemandSyncService = onDemandSyncService;
+    }
+
+    /**
+     * @param url   chart url, any beatport chart
+     * @param genre genre slug of a configured chart, e.g. tech-house, used if no url is given
+     */
+    @PostMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter sync(@RequestParam(required = false) String url,
+                           @RequestParam(required = false) String genre,
+                           @RequestParam(defaultValue = Settings.DEFAULT_ACCOUNT) String account) throws IOException {
+        if (!Settings.readAccountIds().contains(account)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown account: " + account);
+        }
+
+        String chartUrl = StringUtils.hasText(url) ? validate(url) : findConfiguredChart(account, genre);
+        return onDemandSyncService.sync(account, chartUrl);
+    }
+
+    // Only beatport is fetched, no other hosts
+    private static String validate(String url) {
+        URI uri;
+        try {
+            uri = URI.create(url.trim());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid chart url: " + url);
+        }
+
+        String host = uri.getHost();
+        boolean beatportHost = host != null && (host.equals(BEATPORT_HOST) || host.endsWith("." + BEATPORT_HOST));
+        if (!"https".equals(uri.getScheme()) || !beatportHost) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Not a beatport chart url: " + url);
+        }
+        return uri.toString();
+    }
+
+    private static String findConfiguredChart(String account, String genre) {
+        if (!StringUtils.hasText(genre)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Either url or genre is required");
+        }
+
+        String genrePath = "/genre/" + genre.trim().toLowerCase() + "/";
+        return BeatPortConfigService.readChartConfigs(account).stream()
+                .map(ChartConfig::url)
+                .filter(chartUrl -> chartUrl.contains(genrePath))
+                .findFirst()
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "No configured chart for genre: " + genre));
+    }
+}
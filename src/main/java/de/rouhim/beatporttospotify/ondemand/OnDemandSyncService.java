@@ -0,0 +1,175 @@
+package de.rouhim.beatporttospotify.ondemand;
+
+import de.rouhim.beatporttospotify.sync.PipelineProducer;
+import de.rouhim.beatporttospotify.sync.SyncProgress;
+import de.rouhim.beatporttospotify.sync.SyncProgressPublisher;
+import de.rouhim.beatporttospotify.sync.SyncRun;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.TopicPartition;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_URL_OBTAINED;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SYNC_PROGRESS;
+
+/**
+ * Syncs a single chart on demand through the regular stages and streams its progress to the clients.
+ * Requests for a chart that is already syncing join the running sync instead of starting another one.
+ */
+@Service
+public class OnDemandSyncService implements ConsumerSeekAware {
+    private static final String PROGRESS_LISTENER_ID = "sync-progress";
+    private static final String PROGRESS_GROUP_ID = "sync-progress";
+    private static final String CLAIM_KEY_PREFIX = "on-demand-sync:chart:";
+    private static final String RUN_KEY_PREFIX = "on-demand-sync:run:";
+    private static final Duration RUN_TIMEOUT = Duration.ofMinutes(15);
+
+    private final Logger logger = LoggerFactory.getLogger(OnDemandSyncService.class);
+
+    private final PipelineProducer pipelineProducer;
+    private final StringRedisTemplate redisTemplate;
+    private final SyncProgressPublisher syncProgressPublisher;
+    private final Map<String, List<SseEmitter>> emittersByRunId = new ConcurrentHashMap<>();
+
+    public OnDemandSyncService(PipelineProducer pipelineProducer,
+                               StringRedisTemplate redisTemplate,
+                               SyncProgressPublisher syncProgressPublisher) {
+        this.pipelineProducer = pipelineProducer;
+        this.redisTemplate = redisTemplate;
+        this.syncProgressPublisher = syncProgressPublisher;
+    }
+
+    public SseEmitter sync(String accountId, String chartUrl) throws IOException {
+        String claimKey = claimKey(accountId, chartUrl);
+        String newRunId = SyncProgressPublisher.ON_DEMAND_RUN_PREFIX + SyncRun.newRunId();
+
+        // Only the first request of a chart starts a run, all others follow it
+        boolean started = Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(claimKey, newRunId, RUN_TIMEOUT));
+        String runId = started
+                ? newRunId
+                : Objects.requireNonNullElse(redisTemplate.opsForValue().get(claimKey), newRunId);
+
+        SseEmitter emitter = register(runId);
+        emitter.send(SseEmitter.event()
+                .name("run")
+                .data(Map.of("runId", runId, "url", chartUrl, "account", accountId, "joined", !started), MediaType.APPLICATION_JSON));
+
+        if (started) {
+            redisTemplate.opsForValue().set(RUN_KEY_PREFIX + runId, claimKey, RUN_TIMEOUT);
+            logger.info("Starting on demand sync {} of chart {} for account {}", runId, chartUrl, accountId);
+            syncProgressPublisher.publish(runId, SyncProgress.Stage.REQUESTED);
+            try {
+                pipelineProducer.send(SyncRun.accountMessage(KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_URL_OBTAINED, accountId, chartUrl, runId)).join();
+            } catch (Exception e) {
+                // Otherwise the chart stays in progress until the claim expires
+                logger.error("Could not start on demand sync {} of chart {} for account {}", runId, chartUrl, accountId, e);
+                releaseClaim(runId);
+                String detail = "Could not start the sync: " + e.getMessage();
+                syncProgressPublisher.publish(runId, SyncProgress.Stage.FAILED, 0, 0, detail);
+                forward(runId, new SyncProgress(runId, SyncProgress.Stage.FAILED, 0, 0, detail));
+            }
+        } else {
+            logger.info("Joining on demand sync {} of chart {} for account {}", runId, chartUrl, accountId);
+            syncProgressPublisher.latest(runId).ifPresent(progress -> forward(runId, progress));
+        }
+
+        return emitter;
+    }
+
+    // Every instance reads all progress, the clients of a run may be connected to any instance.
+    // The partition is assigned manually, so no consumer group is created per instance, and no offsets are committed.
+    @KafkaListener(id = PROGRESS_LISTENER_ID,
+            groupId = PROGRESS_GROUP_ID,
+            topicPartitions = @TopicPartition(topic = KAFKA_TOPIC_SYNC_PROGRESS, partitions = "0"))
+    public void consumeSyncProgress(String syncProgressJson) {
+        SyncProgressPublisher.fromJson(syncProgressJson).ifPresent(progress -> {
+            forward(progress.runId(), progress);
+            if (progress.isTerminal()) {
+                releaseClaim(progress.runId());
+            }
+        });
+    }
+
+    // Only progress published from now on is of interest, the latest progress of a run is read from redis
+    @Override
+    public void onPartitionsAssigned(Map<org.apache.kafka.common.TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        callback.seekToEnd(assignments.keySet());
+    }
+
+    private SseEmitter register(String runId) {
+        SseEmitter emitter = new SseEmitter(RUN_TIMEOUT.toMillis());
+        emittersByRunId.computeIfAbsent(runId, key -> new CopyOnWriteArrayList<>()).add(emitter);
+
+        Runnable unregister = () -> emittersByRunId.computeIfPresent(runId, (key, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+        emitter.onCompletion(unregister);
+        emitter.onTimeout(unregister);
+        emitter.onError(e -> unregister.run());
+        return emitter;
+    }
+
+    private void forward(String runId, SyncProgress progress) {
+        for (SseEmitter emitter : emittersByRunId.getOrDefault(runId, List.of())) {
+            try {
+                emitter.send(SseEmitter.event()
+                        .name(progress.stage().name().toLowerCase())
+                        .data(progress, MediaType.APPLICATION_JSON));
+                if (progress.isTerminal()) {
+                    emitter.complete();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // The client went away, the run goes on
+                emitter.completeWithError(e);
+            }
+        }
+    }
+
+    // The claim of a finished run is released, so the next request of the chart starts a new run
+    private void releaseClaim(String runId) {
+        String claimKey = redisTemplate.opsForValue().get(RUN_KEY_PREFIX + runId);
+        if (claimKey != null && runId.equals(redisTemplate.opsForValue().get(claimKey))) {
+            redisTemplate.delete(List.of(claimKey, RUN_KEY_PREFIX + runId));
+        }
+    }
+
+    private static String claimKey(String accountId, String chartUrl) {
+        return CLAIM_KEY_PREFIX + accountId + ":" + normalizeChartUrl(chartUrl);
+    }
+
+    // A requested url and the configured url of the same chart may differ in scheme, www, case, trailing slash or query
+    static String normalizeChartUrl(String chartUrl) {
+        URI uri;
+        try {
+            uri = URI.create(chartUrl.trim());
+        } catch (IllegalArgumentException e) {
+            return chartUrl.trim();
+        }
+        if (uri.getHost() == null) {
+            return chartUrl.trim();
+        }
+
+        String host = uri.getHost().toLowerCase(Locale.ROOT);
+        if (host.startsWith("www.")) {
+            host = host.substring("www.".length());
+        }
+        String path = Objects.requireNonNullElse(uri.getPath(), "").replaceAll("/+$", "");
+        return host + path.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,42 @@
+package de.rouhim.beatporttospotify.resilience;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Guards the calls to an external dependency with a circuit breaker and a bulkhead of its own,
+ * so a slow or failing dependency fails fast instead of blocking the threads of the other ones.
+ * Breakers and bulkheads are configured per dependency below resilience4j in the application.yml,
+ * their state is published as resilience4j_* metrics.
+ */
+@Component
+public class DependencyGuard {
+    public static final String BEATPORT = "beatport";
+    public static final String SPOTIFY = "spotify";
+    public static final String COVER_IMAGE_SOURCE = "cover-image-source";
+
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final BulkheadRegistry bulkheadRegistry;
+
+    public DependencyGuard(CircuitBreakerRegistry circuitBreakerRegistry, BulkheadRegistry bulkheadRegistry) {
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+        this.bulkheadRegistry = bulkheadRegistry;
+    }
+
+    /**
+     * @throws io.github.resilience4j.circuitbreaker.CallNotPermittedException if the circuit breaker is open
+     * @throws io.github.resilience4j.bulkhead.BulkheadFullException           if too many calls are running already
+     */
+    public <T> T call(String dependency, Callable<T> call) throws Exception {
+        CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker(dependency);
+        Bulkhead bulkhead = bulkheadRegistry.bulkhead(dependency);
+
+        // Calls rejected by the open breaker do not take a bulkhead permit, a full bulkhead is ignored by the breaker
+        return CircuitBreaker.decorateCallable(circuitBreaker, Bulkhead.decorateCallable(bulkhead, call)).call();
+    }
+}
@@ -0,0 +1,74 @@
+package de.rouhim.beatporttospotify.scheduler;
+
+/**
+ * Schedule state of a single chart, shared by all instances via redis. Timestamps are epoch millis.
+ * The interval grows while the chart content stays the same and falls back to the base interval on a change.
+ *
+ * @param lastFingerprint fingerprint of the tracks of the last parsed run, null before the first run
+ * @param jitterMillis    jitter of the next run, kept when the interval is adapted so charts stay de-synchronized
+ */
+public record ChartSchedule(String url,
+                            long baseIntervalMinutes,
+                            long intervalMinutes,
+                            long nextRunAt,
+                            long lastTriggeredAt,
+                            String lastFingerprint,
+                            int unchangedRuns,
+                            long jitterMillis) {
+    static final double BACKOFF_FACTOR = 1.5;
+    static final int MAX_BACKOFF_MULTIPLIER = 8;
+
+    public static ChartSchedule initial(String url, long baseIntervalMinutes, long firstRunAt) {
+        return new ChartSchedule(url, baseIntervalMinutes, baseIntervalMinutes, firstRunAt, 0, null, 0, 0);
+    }
+
+    public boolean isDue(long now) {
+        return nextRunAt <= now;
+    }
+
+    public ChartSchedule triggered(long now, long jitterMillis) {
+        return new ChartSchedule(url, baseIntervalMinutes, intervalMinutes,
+                now + minutesToMillis(intervalMinutes) + jitterMillis, now, lastFingerprint, unchangedRuns, jitterMillis);
+    }
+
+    public ChartSchedule dueAt(long runAt) {
+        return new ChartSchedule(url, baseIntervalMinutes, intervalMinutes, runAt, lastTriggeredAt, lastFingerprint,
+                unchangedRuns, jitterMillis);
+    }
+
+    /**
+     * Adapts the interval to the content of the latest run, the next run is rescheduled relative to the last trigger.
+     * The jitter of the trigger is scaled to the adapted interval.
+     */
+    public ChartSchedule withContent(String fingerprint) {
+        boolean unchanged = fingerprint.equals(lastFingerprint);
+        long adaptedInterval = unchanged
+                ? Math.min(Math.round(intervalMinutes * BACKOFF_FACTOR), baseIntervalMinutes * MAX_BACKOFF_MULTIPLIER)
+                : baseIntervalMinutes;
+        long adaptedJitter = scaleJitter(adaptedInterval);
+        long adaptedNextRunAt = lastTriggeredAt == 0
+                ? nextRunAt
+                : lastTriggeredAt + minutesToMillis(adaptedInterval) + adaptedJitter;
+
+        return new ChartSchedule(url, baseIntervalMinutes, adaptedInterval, adaptedNextRunAt, lastTriggeredAt,
+                fingerprint, unchanged ? unchangedRuns + 1 : 0, adaptedJitter);
+    }
+
+    // A changed configuration resets the adaption
+    public ChartSchedule withBaseInterval(long newBaseIntervalMinutes) {
+        long adaptedJitter = scaleJitter(newBaseIntervalMinutes);
+        long adaptedNextRunAt = lastTriggeredAt == 0
+                ? nextRunAt
+                : Math.min(nextRunAt, lastTriggeredAt + minutesToMillis(newBaseIntervalMinutes) + adaptedJitter);
+        return new ChartSchedule(url, newBaseIntervalMinutes, newBaseIntervalMinutes, adaptedNextRunAt,
+                lastTriggeredAt, lastFingerprint, 0, adaptedJitter);
+    }
+
+    private long scaleJitter(long newIntervalMinutes) {
+        return intervalMinutes == 0 ? 0 : jitterMillis * newIntervalMinutes / intervalMinutes;
+    }
+
+    private static long minutesToMillis(long minutes) {
+        return minutes * 60_000;
+    }
+}
@@ -0,0 +1,206 @@
+package de.rouhim.beatporttospotify.scheduler;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.rouhim.beatporttospotify.beatport.BeatPortConfigService;
+import de.rouhim.beatporttospotify.beatport.ChartConfig;
+import de.rouhim.beatporttospotify.config.Settings;
+import de.rouhim.beatporttospotify.sync.IdempotencyService;
+import de.rouhim.beatporttospotify.sync.PipelineProducer;
+import de.rouhim.beatporttospotify.sync.SyncRun;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.UnaryOperator;
+
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_URL_OBTAINED;
+
+/**
+ * Schedules every chart on its own, instead of all charts at midnight.
+ * Enabled by SCHEDULE_RATE_MINUTES, the default interval of a chart. A chart may override it, see {@link ChartConfig}.
+ * <p>
+ * The first runs are spread evenly over the interval, every run is jittered,
+ * and the interval of a chart grows while its content does not change.
+ */
+@Service
+public class ChartScheduleService {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String SCHEDULE_KEY_PREFIX = "chart-schedule:";
+    private static final String TRIGGER_LEASE_KEY_PREFIX = "chart-schedule:lease:";
+    private static final String INSTANCE_ID = ManagementFactory.getRuntimeMXBean().getName();
+    private static final double JITTER_RATIO = 0.1;
+    private static final int MAX_UPDATE_ATTEMPTS = 5;
+    // Replaces the schedule only if nobody changed it since it was read
+    private static final RedisScript<Long> COMPARE_AND_SET = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then redis.call('SET', KEYS[1], ARGV[2]) return 1 end return 0",
+            Long.class
+    );
+
+    private final Logger logger = LoggerFactory.getLogger(ChartScheduleService.class);
+
+    private final PipelineProducer pipelineProducer;
+    private final StringRedisTemplate redisTemplate;
+
+    public ChartScheduleService(PipelineProducer pipelineProducer, StringRedisTemplate redisTemplate) {
+        this.pipelineProducer = pipelineProducer;
+        this.redisTemplate = redisTemplate;
+    }
+
+    public static boolean isEnabled() {
+        return Settings.readString(Settings.EnvValue.SCHEDULE_RATE_MINUTES).isPresent();
+    }
+
+    // every minute
+    @Scheduled(fixedDelay = 60_000, initialDelay = 10_000)
+    public void triggerDueCharts() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        long defaultIntervalMinutes = Settings.readInt(Settings.EnvValue.SCHEDULE_RATE_MINUTES);
+        long now = System.currentTimeMillis();
+
+        for (String accountId : Settings.readAccountIds()) {
+            triggerDueCharts(accountId, defaultIntervalMinutes, now);
+        }
+    }
+
+    private void triggerDueCharts(String accountId, long defaultIntervalMinutes, long now) {
+        List<ChartConfig> charts = BeatPortConfigService.readChartConfigs(accountId);
+
+        for (int i = 0; i < charts.size(); i++) {
+            int chartIndex = i;
+            ChartConfig chart = charts.get(i);
+            long baseIntervalMinutes = Optional.ofNullable(chart.intervalMinutes())
+                    .map(Integer::longValue)
+                    .orElse(defaultIntervalMinutes);
+
+            ChartSchedule schedule = load(accountId, chart.url())
+                    .orElseGet(() -> createInitial(accountId, chart.url(), baseIntervalMinutes, chartIndex, charts.size(), now));
+
+            if (schedule.baseIntervalMinutes() != baseIntervalMinutes) {
+                schedule = update(accountId, chart.url(), current -> current.withBaseInterval(baseIntervalMinutes))
+                        .orElse(schedule);
+            }
+
+            if (schedule.isDue(now) && claimTrigger(accountId, schedule)) {
+                trigger(accountId, schedule, now);
+            }
+        }
+    }
+
+    /**
+     * Adapts the interval of a chart to its latest content.
+     *
+     * @param fingerprint fingerprint of the parsed tracks
+     */
+    public void recordContent(String accountId, String url, String fingerprint) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        update(accountId, url, schedule -> schedule.withContent(fingerprint)).ifPresent(adapted -> {
+            logger.info("Chart {} of account {} {}, next run in {} minutes at {}",
+                    url,
+                    accountId,
+                    adapted.unchangedRuns() > 0 ? "unchanged for " + adapted.unchangedRuns() + " runs" : "changed",
+                    adapted.intervalMinutes(),
+                    Instant.ofEpochMilli(adapted.nextRunAt())
+            );
+        });
+    }
+
+    private void trigger(String accountId, ChartSchedule schedule, long now) {
+        String runId = "chart-" + IdempotencyService.fingerprint(accountId + "|" + schedule.url()).substring(0, 8) + "-" + schedule.nextRunAt();
+        logger.info("Sending beatport url obtained message for chart {} of account {} and run {}", schedule.url(), accountId, runId);
+
+        // Recorded before the send, so the content of this run is always adapted relative to this trigger
+        update(accountId, schedule.url(), current -> current.triggered(now, jitterMillis(current.intervalMinutes())));
+        try {
+            pipelineProducer.send(SyncRun.accountMessage(KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_URL_OBTAINED, accountId, schedule.url(), runId)).join();
+        } catch (Exception e) {
+            logger.error("Could not trigger chart {} of account {}, retrying with the next check", schedule.url(), accountId, e);
+            update(accountId, schedule.url(), current -> current.dueAt(now));
+        }
+    }
+
+    // Spreads the first runs of all charts evenly over the interval
+    private ChartSchedule createInitial(String accountId, String url, long baseIntervalMinutes, int index, int chartCount, long now) {
+        long slotMillis = Duration.ofMinutes(baseIntervalMinutes).toMillis() / chartCount;
+        long firstRunAt = now + index * slotMillis + ThreadLocalRandom.current().nextLong(Math.max(1, slotMillis / 2));
+
+        // Another instance may have created the schedule in the meantime, its start time wins
+        ChartSchedule initial = ChartSchedule.initial(url, baseIntervalMinutes, firstRunAt);
+        redisTemplate.opsForValue().setIfAbsent(scheduleKey(accountId, url), toJson(initial));
+        return load(accountId, url).orElse(initial);
+    }
+
+    // Only one instance triggers a scheduled run
+    private boolean claimTrigger(String accountId, ChartSchedule schedule) {
+        String leaseKey = TRIGGER_LEASE_KEY_PREFIX + accountId + ":" + schedule.url() + ":" + schedule.nextRunAt();
+        return Boolean.TRUE.equals(redisTemplate.opsForValue()
+                .setIfAbsent(leaseKey, INSTANCE_ID, Duration.ofMinutes(schedule.intervalMinutes())));
+    }
+
+    private static long jitterMillis(long intervalMinutes) {
+        long maxJitterMillis = (long) (Duration.ofMinutes(intervalMinutes).toMillis() * JITTER_RATIO);
+        return maxJitterMillis == 0 ? 0 : ThreadLocalRandom.current().nextLong(-maxJitterMillis, maxJitterMillis);
+    }
+
+    private Optional<ChartSchedule> load(String accountId, String url) {
+        return Optional.ofNullable(redisTemplate.opsForValue().get(scheduleKey(accountId, url)))
+                .map(ChartScheduleService::fromJson);
+    }
+
+    // Triggers and content updates of a chart may run concurrently on different instances
+    private Optional<ChartSchedule> update(String accountId, String url, UnaryOperator<ChartSchedule> change) {
+        String key = scheduleKey(accountId, url);
+
+        for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+            String json = redisTemplate.opsForValue().get(key);
+            if (json == null) {
+                return Optional.empty();
+            }
+
+            ChartSchedule updated = change.apply(fromJson(json));
+            Long swapped = redisTemplate.execute(COMPARE_AND_SET, List.of(key), json, toJson(updated));
+            if (Long.valueOf(1).equals(swapped)) {
+                return Optional.of(updated);
+            }
+        }
+
+        throw new IllegalStateException("Chart schedule " + key + " was changed concurrently " + MAX_UPDATE_ATTEMPTS + " times");
+    }
+
+    // Accounts may sync the same chart, each on its own schedule
+    private static String scheduleKey(String accountId, String url) {
+        return SCHEDULE_KEY_PREFIX + accountId + ":" + url;
+    }
+
+    private static String toJson(ChartSchedule schedule) {
+        try {
+            return objectMapper.writeValueAsString(schedule);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static ChartSchedule fromJson(String json) {
+        try {
+            return objectMapper.readValue(json, ChartSchedule.class);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package de.rouhim.beatporttospotify.scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Grants at most one sync run per schedule window across all instances.
+ * The lease lives in redis until the window ends, so a restart within the window does not trigger again.
+ * Every granted lease gets a new, strictly increasing fencing token, triggers with an older token are stale.
+ */
+@Service
+public class RunLeaseService {
+    private static final String LEASE_KEY_PREFIX = "scheduler:run-lease:";
+    private static final String FENCING_TOKEN_KEY = "scheduler:fencing-token";
+    private static final String INSTANCE_ID = ManagementFactory.getRuntimeMXBean().getName();
+    // Deletes the lease only if it still holds the given fencing token
+    private static final RedisScript<Long> COMPARE_AND_DELETE = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end return 0",
+            Long.class
+    );
+
+    private final Logger logger = LoggerFactory.getLogger(RunLeaseService.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    public RunLeaseService(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * Tries to acquire the lease of the given schedule window.
+     *
+     * @param windowId identifies the schedule window, e.g. the date of a nightly run
+     * @param ttl      time until the window ends
+     * @return the lease, or empty if the window was already triggered by this or another instance
+     */
+    public Optional<RunLease> tryAcquire(String windowId, Duration ttl) {
+        String leaseKey = LEASE_KEY_PREFIX + windowId;
+        Boolean acquired = redisTemplate.opsForValue().setIfAbsent(leaseKey, INSTANCE_ID, ttl);
+
+        if (!Boolean.TRUE.equals(acquired)) {
+            logger.info("Run of window {} was already triggered by {}", windowId, redisTemplate.opsForValue().get(leaseKey));
+            return Optional.empty();
+        }
+
+        // Only lease holders draw a token, so the latest token always belongs to the latest granted lease
+        Long fencingToken = redisTemplate.opsForValue().increment(FENCING_TOKEN_KEY);
+        if (fencingToken == null) {
+            throw new IllegalStateException("Could not obtain a fencing token");
+        }
+        redisTemplate.opsForValue().set(leaseKey, leaseValue(fencingToken), ttl);
+
+        logger.info("Acquired run lease for window {} with fencing token {}", windowId, fencingToken);
+        return Optional.of(new RunLease(windowId, fencingToken));
+    }
+
+    /**
+     * Gives the window free again, e.g. if its run could not be triggered. A newer lease of the window is kept.
+     */
+    public void release(RunLease lease) {
+        Long deleted = redisTemplate.execute(COMPARE_AND_DELETE, List.of(LEASE_KEY_PREFIX + lease.windowId()), leaseValue(lease.fencingToken()));
+        logger.info("Released run lease for window {} with fencing token {}: {}", lease.windowId(), lease.fencingToken(),
+                Long.valueOf(1).equals(deleted) ? "released" : "no longer held");
+    }
+
+    // A trigger is stale once a newer lease was granted, e.g. a redelivered trigger of the previous window
+    public boolean isCurrent(long fencingToken) {
+        String latestToken = redisTemplate.opsForValue().get(FENCING_TOKEN_KEY);
+        return latestToken == null || fencingToken >= Long.parseLong(latestToken);
+    }
+
+    private static String leaseValue(long fencingToken) {
+        return fencingToken + "@" + INSTANCE_ID;
+    }
+
+    public record RunLease(String windowId, long fencingToken) {
+        public String runId() {
+            return windowId + "-" + fencingToken;
+        }
+    }
+}
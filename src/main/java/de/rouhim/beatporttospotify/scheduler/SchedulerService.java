@@ -1,33 +1,75 @@
 package de.rouhim.beatporttospotify.scheduler;
 
+import de.rouhim.beatporttospotify.sync.PipelineProducer;
+import de.rouhim.beatporttospotify.sync.SyncRun;
 import jakarta.annotation.PostConstruct;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
 import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_BEATPORT_PARSING_SCHEDULED;
 
 @Service
 public class SchedulerService {
     private final Logger logger = LoggerFactory.getLogger(SchedulerService.class);
 
-    private final KafkaTemplate<String, String> kafkaStringMessage;
+    private final PipelineProducer pipelineProducer;
+    private final RunLeaseService runLeaseService;
+
+    @Value("${startup.deferred:false}")
+    private boolean deferredStartup;
 
-    public SchedulerService(KafkaTemplate<String, String> kafkaStringMessage) {
-        this.kafkaStringMessage = kafkaStringMessage;
+    public SchedulerService(PipelineProducer pipelineProducer, RunLeaseService runLeaseService) {
+        this.pipelineProducer = pipelineProducer;
+        this.runLeaseService = runLeaseService;
     }
 
+    // Catches up on the run of today, if no instance triggered it yet. Deferred until ready with deferred startup.
     @PostConstruct
     public void init() {
-        runTask();
+        if (!deferredStartup) {
+            runTask();
+        }
     }
 
-    // every night
+    // every night, unless the charts are scheduled individually
     @Scheduled(cron = "0 0 0 * * *")
     public void runTask() {
-        logger.info("Sending beatport parsing scheduled message");
-        kafkaStringMessage.send(KAFKA_TOPIC_BEATPORT_PARSING_SCHEDULED, null);
+        if (ChartScheduleService.isEnabled()) {
+            logger.debug("Skipping nightly beatport parsing, charts are scheduled by SCHEDULE_RATE_MINUTES");
+            return;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        LocalDate window = now.toLocalDate();
+        Duration untilNextWindow = Duration.between(now, window.plusDays(1).atStartOfDay());
+
+        Optional<RunLeaseService.RunLease> lease = runLeaseService.tryAcquire(window.toString(), untilNextWindow);
+        if (lease.isEmpty()) {
+            logger.info("Skipping beatport parsing, the run of {} was already triggered", window);
+            return;
+        }
+
+        String runId = lease.get().runId();
+        logger.info("Sending beatport parsing scheduled message for run {}", runId);
+
+        ProducerRecord<String, String> message = SyncRun.message(KAFKA_TOPIC_BEATPORT_PARSING_SCHEDULED, null, runId);
+        message.headers().add(SyncRun.HEADER_FENCING_TOKEN, String.valueOf(lease.get().fencingToken()).getBytes(StandardCharsets.UTF_8));
+        try {
+            pipelineProducer.send(message).join();
+        } catch (Exception e) {
+            // Otherwise the lease blocks the window and its run is lost
+            logger.error("Could not trigger run {}, releasing its lease", runId, e);
+            runLeaseService.release(lease.get());
+        }
     }
 }
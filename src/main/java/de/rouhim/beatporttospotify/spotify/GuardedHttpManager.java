@@ -0,0 +1,56 @@
+package de.rouhim.beatporttospotify.spotify;
+
+import de.rouhim.beatporttospotify.resilience.DependencyGuard;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.ParseException;
+import se.michaelthelin.spotify.IHttpManager;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.Callable;
+
+/**
+ * Sends every spotify request, including the token requests, through the spotify circuit breaker and bulkhead.
+ */
+class GuardedHttpManager implements IHttpManager {
+    private final IHttpManager delegate;
+    private final DependencyGuard dependencyGuard;
+
+    GuardedHttpManager(IHttpManager delegate, DependencyGuard dependencyGuard) {
+        this.delegate = delegate;
+        this.dependencyGuard = dependencyGuard;
+    }
+
+    @Override
+    public String get(URI uri, Header[] headers) throws IOException, SpotifyWebApiException, ParseException {
+        return guarded(() -> delegate.get(uri, headers));
+    }
+
+    @Override
+    public String post(URI uri, Header[] headers, HttpEntity body) throws IOException, SpotifyWebApiException, ParseException {
+        return guarded(() -> delegate.post(uri, headers, body));
+    }
+
+    @Override
+    public String put(URI uri, Header[] headers, HttpEntity body) throws IOException, SpotifyWebApiException, ParseException {
+        return guarded(() -> delegate.put(uri, headers, body));
+    }
+
+    @Override
+    public String delete(URI uri, Header[] headers, HttpEntity body) throws IOException, SpotifyWebApiException, ParseException {
+        return guarded(() -> delegate.delete(uri, headers, body));
+    }
+
+    // Keeps the exception types of the spotify client, so e.g. an expired token is still refreshed by the callers
+    private String guarded(Callable<String> request) throws IOException, SpotifyWebApiException, ParseException {
+        try {
+            return dependencyGuard.call(DependencyGuard.SPOTIFY, request);
+        } catch (IOException | SpotifyWebApiException | ParseException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package de.rouhim.beatporttospotify.spotify;
+
+/**
+ * Snapshot of a playlist after we last replaced its tracks.
+ *
+ * @param urisFingerprint fingerprint of the written track uris
+ */
+public record PlaylistSnapshot(String snapshotId, String urisFingerprint) {
+}
@@ -0,0 +1,48 @@
+package de.rouhim.beatporttospotify.spotify;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Remembers the spotify snapshot id of every playlist we wrote. As long as the snapshot id did not change,
+ * nobody else touched the playlist and its content does not need to be read or written again.
+ */
+@Service
+public class PlaylistSnapshotStore {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String KEY_PREFIX = "playlist-snapshot:";
+    private static final Duration SNAPSHOT_TTL = Duration.ofDays(30);
+
+    private final Logger logger = LoggerFactory.getLogger(PlaylistSnapshotStore.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    public PlaylistSnapshotStore(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    public Optional<PlaylistSnapshot> get(String playlistId) {
+        String json = redisTemplate.opsForValue().get(KEY_PREFIX + playlistId);
+        if (json == null) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(objectMapper.readValue(json, PlaylistSnapshot.class));
+        } catch (JsonProcessingException e) {
+            logger.warn("Ignoring unreadable snapshot of playlist {}: {}", playlistId, json);
+            return Optional.empty();
+        }
+    }
+
+    public void put(String playlistId, PlaylistSnapshot snapshot) throws JsonProcessingException {
+        redisTemplate.opsForValue().set(KEY_PREFIX + playlistId, objectMapper.writeValueAsString(snapshot), SNAPSHOT_TTL);
+    }
+}
@@ -0,0 +1,73 @@
+package de.rouhim.beatporttospotify.spotify;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket of a spotify account, shared by all instances via redis. Allows bursts of up to one second
+ * worth of requests, at least a single request. Times are taken from the redis clock, in microseconds.
+ */
+final class RateLimiter {
+    private static final String KEY_PREFIX = "spotify-rate-limit:";
+    private static final long MICROS_PER_SECOND = TimeUnit.SECONDS.toMicros(1);
+    // Takes a permit if it is free now, returns the micros until the next permit is free otherwise
+    private static final RedisScript<Long> TRY_ACQUIRE = new DefaultRedisScript<>("""
+            local time = redis.call('TIME')
+            local now = tonumber(time[1]) * 1000000 + tonumber(time[2])
+            local interval = tonumber(ARGV[1])
+            local nextFreeAt = tonumber(redis.call('GET', KEYS[1]) or '0')
+            local grantedAt = math.max(nextFreeAt, now - tonumber(ARGV[2]))
+            if grantedAt > now then
+                return grantedAt - now
+            end
+            redis.call('SET', KEYS[1], string.format('%d', grantedAt + interval), 'PX', math.ceil(interval / 1000) + 1000)
+            return 0
+            """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final List<String> keys;
+    private final long intervalMicros;
+    private final long burstMicros;
+
+    /**
+     * @param permitsPerSecond 0 or less for unlimited
+     */
+    RateLimiter(StringRedisTemplate redisTemplate, String accountId, double permitsPerSecond) {
+        this.redisTemplate = redisTemplate;
+        this.keys = List.of(KEY_PREFIX + accountId);
+        this.intervalMicros = permitsPerSecond > 0 ? (long) (MICROS_PER_SECOND / permitsPerSecond) : 0;
+        // Below one permit per second the bucket holds a single permit
+        this.burstMicros = Math.max(0, MICROS_PER_SECOND - intervalMicros);
+    }
+
+    /**
+     * @return zero if a permit was taken, the time until the next permit is free otherwise
+     */
+    Duration tryAcquire() {
+        if (intervalMicros == 0) {
+            return Duration.ZERO;
+        }
+
+        Long waitMicros = redisTemplate.execute(TRY_ACQUIRE, keys, String.valueOf(intervalMicros), String.valueOf(burstMicros));
+        return waitMicros == null ? Duration.ZERO : Duration.of(waitMicros, ChronoUnit.MICROS);
+    }
+
+    // Blocks until a permit is available, only for threads that may wait, not for listener threads
+    void acquire() {
+        Duration wait;
+        while (!(wait = tryAcquire()).isZero()) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a spotify request permit", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package de.rouhim.beatporttospotify.spotify;
+
+import de.rouhim.beatporttospotify.config.Settings;
+
+import java.util.List;
+
+/**
+ * A spotify account the charts are synced to. Accounts are listed in SPOTIFY_ACCOUNTS, every account has its own
+ * env values suffixed with the upper case account id, e.g. SPOTIFY_CLIENT_ID_ALICE or BEATPORT_URLS_ALICE.
+ * Without SPOTIFY_ACCOUNTS there is only the default account, which uses the env values without suffix.
+ *
+ * @param authCode          null if not set
+ * @param requestsPerSecond spotify requests per second of the account across all instances, 0 for unlimited
+ */
+public record SpotifyAccount(String id, String clientId, String clientSecret, String authCode, double requestsPerSecond) {
+
+    public static List<SpotifyAccount> readAll() {
+        return Settings.readAccountIds().stream()
+                .map(SpotifyAccount::read)
+                .toList();
+    }
+
+    public static SpotifyAccount read(String accountId) {
+        return new SpotifyAccount(
+                accountId,
+                Settings.readString(Settings.EnvValue.SPOTIFY_CLIENT_ID, accountId).orElseThrow(() -> missing("SPOTIFY_CLIENT_ID", accountId)),
+                Settings.readString(Settings.EnvValue.SPOTIFY_CLIENT_SECRET, accountId).orElseThrow(() -> missing("SPOTIFY_CLIENT_SECRET", accountId)),
+                Settings.readString(Settings.EnvValue.SPOTIFY_AUTH_CODE, accountId).orElse(null),
+                Settings.readString(Settings.EnvValue.SPOTIFY_REQUESTS_PER_SECOND, accountId)
+                        .or(() -> Settings.readString(Settings.EnvValue.SPOTIFY_REQUESTS_PER_SECOND))
+                        .map(Double::parseDouble)
+                        .orElse(0d)
+        );
+    }
+
+    private static IllegalStateException missing(String envValue, String accountId) {
+        return new IllegalStateException("No %s configured for spotify account %s".formatted(envValue, accountId));
+    }
+}
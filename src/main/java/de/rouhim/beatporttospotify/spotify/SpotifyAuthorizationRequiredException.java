@@ -0,0 +1,10 @@
+package de.rouhim.beatporttospotify.spotify;
+
+/**
+ * The spotify account has no valid tokens, a new auth code has to be configured and the application restarted.
+ */
+public class SpotifyAuthorizationRequiredException extends RuntimeException {
+    public SpotifyAuthorizationRequiredException(String message) {
+        super(message);
+    }
+}
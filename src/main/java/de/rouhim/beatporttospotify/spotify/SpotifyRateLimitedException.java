@@ -0,0 +1,19 @@
+package de.rouhim.beatporttospotify.spotify;
+
+import java.time.Duration;
+
+/**
+ * The spotify account has no request permit left right now, listeners redeliver their record after the given time.
+ */
+public class SpotifyRateLimitedException extends RuntimeException {
+    private final Duration retryAfter;
+
+    public SpotifyRateLimitedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration retryAfter() {
+        return retryAfter;
+    }
+}
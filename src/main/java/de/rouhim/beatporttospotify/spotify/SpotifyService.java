@@ -7,250 +7,326 @@ import de.rouhim.beatporttospotify.beatport.BeatportPlaylist;
 import de.rouhim.beatporttospotify.beatport.BeatportTrack;
 import de.rouhim.beatporttospotify.config.Settings;
 import de.rouhim.beatporttospotify.image.CoverImage;
+import de.rouhim.beatporttospotify.matching.MatchedPlaylist;
+import de.rouhim.beatporttospotify.matching.TrackMatchRequest;
+import de.rouhim.beatporttospotify.matching.TrackMatchResult;
+import de.rouhim.beatporttospotify.resilience.DependencyGuard;
+import de.rouhim.beatporttospotify.sync.IdempotencyService;
+import de.rouhim.beatporttospotify.sync.PipelineProducer;
+import de.rouhim.beatporttospotify.sync.SyncProgress;
+import de.rouhim.beatporttospotify.sync.SyncProgressPublisher;
+import de.rouhim.beatporttospotify.sync.SyncRun;
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.PostConstruct;
 import org.apache.hc.client5.http.utils.Base64;
 import org.apache.hc.core5.http.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Service;
-import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.IHttpManager;
 import se.michaelthelin.spotify.SpotifyHttpManager;
 import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
-import se.michaelthelin.spotify.model_objects.credentials.AuthorizationCodeCredentials;
+import se.michaelthelin.spotify.exceptions.detailed.UnauthorizedException;
 import se.michaelthelin.spotify.model_objects.specification.Image;
 import se.michaelthelin.spotify.model_objects.specification.Playlist;
 import se.michaelthelin.spotify.model_objects.specification.PlaylistSimplified;
 import se.michaelthelin.spotify.model_objects.specification.Track;
 
 import java.io.IOException;
-import java.net.URI;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
-import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_PARSED;
 import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_COVER_IMAGE_GENERATED;
 import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SPOTIFY_PLAYLIST_CREATED;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SPOTIFY_PLAYLIST_MATCHED;
 import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SPOTIFY_PLAYLIST_UPDATED;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SPOTIFY_TRACK_MATCHED;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_DEFERRED;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_REQUESTED;
 
 @Service
 public class SpotifyService {
-    private static final String clientId = Settings.readString(Settings.EnvValue.SPOTIFY_CLIENT_ID).orElseThrow();
-    private static final String clientSecret = Settings.readString(Settings.EnvValue.SPOTIFY_CLIENT_SECRET).orElseThrow();
-    private static final URI redirectUri = SpotifyHttpManager.makeUri("https://example.org/");
     public static final String CACHE_NAME_SPOTIFY_URI = "spotify-uri";
-    private SpotifyApi spotifyApi;
+    // The playlist is only read to check for changes and the cover image, not for its tracks
+    private static final String PLAYLIST_STATE_FIELDS = "id,snapshot_id,images(url)";
+    // A degraded api fails the call instead of blocking the listener thread
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final int SOCKET_TIMEOUT_MILLIS = 30_000;
+    private static final Duration DEFERRED_MATCH_DELAY = Duration.ofSeconds(1);
 
     private static final ObjectMapper objectMapper = new ObjectMapper();
     private final Logger logger = LoggerFactory.getLogger(SpotifyService.class);
 
-    private final KafkaTemplate<String, String> kafkaStringMessage;
+    private final PipelineProducer pipelineProducer;
     private final CacheManager cacheManager;
+    private final ObjectProvider<IHttpManager> httpManager;
+    private final IdempotencyService idempotencyService;
+    private final PlaylistSnapshotStore playlistSnapshotStore;
+    private final DependencyGuard dependencyGuard;
+    private final SyncProgressPublisher syncProgressPublisher;
+    private final TrackMatchIndex trackMatchIndex;
+    private final TrackMatchRegistry trackMatchRegistry;
+    private final StringRedisTemplate redisTemplate;
+    private final Map<String, SpotifySession> sessions = new LinkedHashMap<>();
     private Cache spotifyUriCache;
 
-    public SpotifyService(KafkaTemplate<String, String> kafkaStringMessage, CacheManager cacheManager) {
-        this.kafkaStringMessage = kafkaStringMessage;
+    @Value("${startup.deferred:false}")
+    private boolean deferredStartup;
+
+    /**
+     * @param httpManager optional http manager for the spotify client, e.g. to route the calls through a proxy or stub
+     */
+    public SpotifyService(PipelineProducer pipelineProducer,
+                          CacheManager cacheManager,
+                          ObjectProvider<IHttpManager> httpManager,
+                          IdempotencyService idempotencyService,
+                          PlaylistSnapshotStore playlistSnapshotStore,
+                          DependencyGuard dependencyGuard,
+                          SyncProgressPublisher syncProgressPublisher,
+                          TrackMatchIndex trackMatchIndex,
+                          TrackMatchRegistry trackMatchRegistry,
+                          StringRedisTemplate redisTemplate) {
+        this.pipelineProducer = pipelineProducer;
         this.cacheManager = cacheManager;
+        this.httpManager = httpManager;
+        this.idempotencyService = idempotencyService;
+        this.playlistSnapshotStore = playlistSnapshotStore;
+        this.dependencyGuard = dependencyGuard;
+        this.syncProgressPublisher = syncProgressPublisher;
+        this.trackMatchIndex = trackMatchIndex;
+        this.trackMatchRegistry = trackMatchRegistry;
+        this.redisTemplate = redisTemplate;
     }
 
+    // With deferred startup the spotify client is initialized after the application is up, see DeferredStartupService
     @PostConstruct
     public void init() throws IOException, ParseException, SpotifyWebApiException {
         spotifyUriCache = cacheManager.getCache(CACHE_NAME_SPOTIFY_URI);
-        initialize();
-    }
-
-    @KafkaListener(topics = KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_PARSED)
-    public void consumePlaylistParsed(String beatportPlaylist) throws Exception {
-        logger.info(
-                "Consumed message from topic: %s with playlist: %s"
-                        .formatted(
-                                KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_PARSED,
-                                beatportPlaylist
-                        )
+        IHttpManager guardedHttpManager = new GuardedHttpManager(
+                httpManager.getIfAvailable(SpotifyService::createHttpManager),
+                dependencyGuard
         );
-
-        BeatportPlaylist parsedBeatportPlaylist = objectMapper.readValue(beatportPlaylist, BeatportPlaylist.class);
-
-        updatePlaylist(parsedBeatportPlaylist);
+        for (SpotifyAccount account : SpotifyAccount.readAll()) {
+            sessions.put(account.id(), new SpotifySession(account, guardedHttpManager, redisTemplate));
+        }
+        if (!deferredStartup) {
+            initialize();
+        }
     }
 
-    public void initialize() throws IOException, SpotifyWebApiException, ParseException {
-        if (spotifyApi != null) {
+    // Matches a single chart track, the result is collected by the track match aggregator
+    @KafkaListener(topics = KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_REQUESTED)
+    public void consumeTrackMatchRequested(String trackMatchRequestJson,
+                                           @Header(name = SyncRun.HEADER_RUN_ID, required = false) String runId,
+                                           @Header(name = SyncRun.HEADER_ACCOUNT, required = false) String accountId,
+                                           Acknowledgment acknowledgment) throws Exception {
+        TrackMatchRequest request = objectMapper.readValue(trackMatchRequestJson, TrackMatchRequest.class);
+
+        try {
+            matchTrack(request, runId, accountId);
+        } catch (TrackMatchDeferredException e) {
+            // Another consumer searches the same track, the request waits on its own topic, not in front of this partition
+            pipelineProducer.send(SyncRun.withAccount(SyncRun.message(
+                    KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_DEFERRED,
+                    request.aggregationId() + ":" + request.position(),
+                    trackMatchRequestJson,
+                    runId
+            ), accountId)).join();
+        } catch (SpotifyRateLimitedException e) {
+            acknowledgment.nack(e.retryAfter());
             return;
         }
 
-        spotifyApi = new SpotifyApi.Builder()
-                .setClientId(clientId)
-                .setClientSecret(clientSecret)
-                .setRedirectUri(redirectUri)
-                .build();
+        acknowledgment.acknowledge();
+    }
 
-        Optional<String> authCode = Settings.readString(Settings.EnvValue.SPOTIFY_AUTH_CODE);
-        Optional<String> accessToken = Settings.readPersistentValue(Settings.PersistentValue.ACCESS_TOKEN);
-        Optional<String> refreshToken = Settings.readPersistentValue(Settings.PersistentValue.REFRESH_TOKEN);
+    // Match requests of tracks that were searched by another consumer, redelivered until the shared result is there
+    @KafkaListener(topics = KAFKA_TOPIC_SPOTIFY_TRACK_MATCH_DEFERRED)
+    public void consumeTrackMatchDeferred(String trackMatchRequestJson,
+                                          @Header(name = SyncRun.HEADER_RUN_ID, required = false) String runId,
+                                          @Header(name = SyncRun.HEADER_ACCOUNT, required = false) String accountId,
+                                          Acknowledgment acknowledgment) throws Exception {
+        TrackMatchRequest request = objectMapper.readValue(trackMatchRequestJson, TrackMatchRequest.class);
 
-        // If nothing is set, request manual authorization
-        if (accessToken.isEmpty() && refreshToken.isEmpty() && authCode.isEmpty()) {
-            requestManualAuthorization();
+        try {
+            matchTrack(request, runId, accountId);
+        } catch (TrackMatchDeferredException e) {
+            acknowledgment.nack(DEFERRED_MATCH_DELAY);
+            return;
+        } catch (SpotifyRateLimitedException e) {
+            acknowledgment.nack(e.retryAfter());
+            return;
         }
 
-        // If only auth code is set, request access token and refresh token
-        if (accessToken.isEmpty() && refreshToken.isEmpty() && authCode.isPresent()) {
-            try {
-                requestAccessToken(authCode.get());
-            } catch (Exception e) {
-                logger.error(e.getMessage());
-                requestManualAuthorization();
-            }
-        }
+        acknowledgment.acknowledge();
+    }
 
-        // If only access token is set, request refresh token
-        if (accessToken.isPresent() && refreshToken.isPresent()) {
-            requestRefreshToken(accessToken.get(), refreshToken.get());
-        }
+    private void matchTrack(TrackMatchRequest request, String runId, String accountId) throws Exception {
+        SpotifySession session = session(accountId);
 
-        // Test if access token is valid
+        String spotifyUri;
         try {
-            logger.info("Testing access token validity");
-            spotifyApi.getCurrentUsersProfile().build().execute();
-            logger.info("Access token is valid");
-        } catch (SpotifyWebApiException e) {
-            logger.error(e.getMessage(), e);
-            requestManualAuthorization();
+            spotifyUri = determineSpotifyUri(session, request.track(), runId).orElse(null);
+        } catch (UnauthorizedException e) {
+            // Instances that only match tracks never write a playlist, so they refresh the expired token here
+            session.authCodeRefresh();
+            spotifyUri = determineSpotifyUri(session, request.track(), runId).orElse(null);
         }
-    }
-
-    private void requestAccessToken(String authCode) throws IOException, SpotifyWebApiException, ParseException {
-        AuthorizationCodeCredentials authorizationCodeCredentials = spotifyApi.authorizationCode(authCode).build().execute();
-
-        String accessToken = authorizationCodeCredentials.getAccessToken();
-        String refreshToken = authorizationCodeCredentials.getRefreshToken();
-
-        // Set access and refresh token for further "spotifyApi" object usage
-        spotifyApi.setAccessToken(accessToken);
-        spotifyApi.setRefreshToken(refreshToken);
 
-        Settings.savePersistentValue(Settings.PersistentValue.ACCESS_TOKEN, accessToken);
-        Settings.savePersistentValue(Settings.PersistentValue.REFRESH_TOKEN, refreshToken);
+        TrackMatchResult result = new TrackMatchResult(request.aggregationId(), request.position(), request.total(), spotifyUri);
+        pipelineProducer.send(SyncRun.withAccount(SyncRun.message(
+                KAFKA_TOPIC_SPOTIFY_TRACK_MATCHED,
+                request.aggregationId(),
+                objectMapper.writeValueAsString(result),
+                runId
+        ), accountId)).join();
     }
 
-    private void requestRefreshToken(String accessToken, String refreshToken) throws IOException, SpotifyWebApiException, ParseException {
-        spotifyApi.setAccessToken(accessToken);
-        spotifyApi.setRefreshToken(refreshToken);
+    @KafkaListener(topics = KAFKA_TOPIC_SPOTIFY_PLAYLIST_MATCHED)
+    public void consumePlaylistMatched(String matchedPlaylistJson,
+                                       @Header(name = SyncRun.HEADER_RUN_ID, required = false) String runId,
+                                       @Header(name = SyncRun.HEADER_ACCOUNT, required = false) String accountId,
+                                       Acknowledgment acknowledgment) throws Exception {
+        logger.info(
+                "Consumed message from topic: %s with playlist: %s"
+                        .formatted(
+                                KAFKA_TOPIC_SPOTIFY_PLAYLIST_MATCHED,
+                                matchedPlaylistJson
+                        )
+        );
 
-        AuthorizationCodeCredentials authorizationCodeCredentials = spotifyApi.authorizationCodeRefresh().build().execute();
+        // The same chart is written to the playlists of every account
+        String fingerprint = SyncRun.accountOrDefault(accountId) + "|" + IdempotencyService.fingerprint(matchedPlaylistJson);
+        if (idempotencyService.isProcessed(IdempotencyService.STAGE_PLAYLIST_WRITE, runId, fingerprint)) {
+            acknowledgment.acknowledge();
+            return;
+        }
 
-        String newAccessToken = authorizationCodeCredentials.getAccessToken();
-        String newRefreshToken = authorizationCodeCredentials.getRefreshToken();
+        MatchedPlaylist matchedPlaylist = objectMapper.readValue(matchedPlaylistJson, MatchedPlaylist.class);
 
-        if (authorizationCodeCredentials.getAccessToken() == null || authorizationCodeCredentials.getRefreshToken() == null) {
-            logger.warn("Could not refresh access token");
+        try {
+            writePlaylist(session(accountId), matchedPlaylist.title(), matchedPlaylist.url(), matchedPlaylist.spotifyUris(), runId);
+        } catch (SpotifyRateLimitedException e) {
+            // Written again from the start, an already created playlist is found then
+            acknowledgment.nack(e.retryAfter());
             return;
         }
 
-        // Set access and refresh token for further "spotifyApi" object usage
-        spotifyApi.setAccessToken(newAccessToken);
-        spotifyApi.setRefreshToken(newRefreshToken);
-
-        Settings.savePersistentValue(Settings.PersistentValue.ACCESS_TOKEN, newAccessToken);
-        Settings.savePersistentValue(Settings.PersistentValue.REFRESH_TOKEN, newRefreshToken);
+        idempotencyService.markProcessed(IdempotencyService.STAGE_PLAYLIST_WRITE, runId, fingerprint);
+        acknowledgment.acknowledge();
     }
 
-    private void requestManualAuthorization() throws IOException, SpotifyWebApiException, ParseException {
-        logger.info("Requesting manual authorization");
-
-        // Remove access and refresh token
-        Settings.deletePersistentValue(Settings.PersistentValue.ACCESS_TOKEN);
-        Settings.deletePersistentValue(Settings.PersistentValue.REFRESH_TOKEN);
-
-        URI authUrl = spotifyApi.authorizationCodeUri()
-                .scope("playlist-modify-public playlist-modify-private ugc-image-upload")
-                .build().execute();
+    private static IHttpManager createHttpManager() {
+        return new SpotifyHttpManager.Builder()
+                .setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+                .setSocketTimeout(SOCKET_TIMEOUT_MILLIS)
+                .build();
+    }
 
-        logger.info("Visit: {}", authUrl.toString());
-        logger.info("Then enter the retrieved code to SPOTIFY_AUTH_CODE and restart");
+    // Initializes the spotify client of every configured account
+    public void initialize() throws IOException, SpotifyWebApiException, ParseException {
+        for (SpotifySession session : sessions.values()) {
+            session.initialize();
+        }
+    }
 
-        System.exit(0);
+    private SpotifySession session(String accountId) {
+        SpotifySession session = sessions.get(SyncRun.accountOrDefault(accountId));
+        if (session == null) {
+            throw new IllegalStateException("Unknown spotify account: " + accountId);
+        }
+        return session;
     }
 
+    // Matches all tracks of the playlist on this instance and writes them to the playlist of the default account
     public void updatePlaylist(BeatportPlaylist beatportPlaylist) throws Exception {
-        authCodeRefresh();
+        SpotifySession session = session(Settings.DEFAULT_ACCOUNT);
+        writePlaylist(session, beatportPlaylist.title(), beatportPlaylist.url(), determineSpotifyUris(session, beatportPlaylist.tracks()), null);
+    }
 
-        String playlistTitle = beatportPlaylist.title();
-        String sourceUrl = beatportPlaylist.url();
+    private void writePlaylist(SpotifySession session, String playlistTitle, String sourceUrl, List<String> spotifyUris, String runId) throws Exception {
+        session.authCodeRefresh();
 
-        logger.info("Try to find playlist: {}", playlistTitle);
-        Optional<String> playlistId = findPlaylist(playlistTitle);
+        logger.info("Try to find playlist: {} of account {}", playlistTitle, session.accountId());
+        Optional<String> playlistId = findPlaylist(session, playlistTitle);
 
         if (playlistId.isEmpty()) {
             logger.info("No playlist found, creating:{}", sourceUrl);
-            playlistId = createPlaylist(playlistTitle, sourceUrl);
+            playlistId = createPlaylist(session, playlistTitle, sourceUrl);
 
 
             if (playlistId.isPresent()) {
-                kafkaStringMessage.send(
+                pipelineProducer.send(SyncRun.accountMessage(
                         KAFKA_TOPIC_SPOTIFY_PLAYLIST_CREATED,
-                        createPlaylistDto(playlistId.get(), playlistTitle)
-                );
+                        session.accountId(),
+                        createPlaylistDto(playlistId.get(), playlistTitle),
+                        runId
+                )).join();
             }
         }
 
         if (playlistId.isPresent()) {
             logger.info("Found spotify playlist");
-            Playlist playlist = spotifyApi.getPlaylist(playlistId.get()).build().execute();
+            Playlist playlist = session.api().getPlaylist(playlistId.get())
+                    .fields(PLAYLIST_STATE_FIELDS)
+                    .build()
+                    .execute();
 
-            logger.info("Adding tracks to spotify playlist");
-            addTracksToPlaylist(playlist, beatportPlaylist.tracks());
+            String urisFingerprint = IdempotencyService.fingerprint(String.join(",", spotifyUris));
+            if (isUnchanged(playlist, urisFingerprint)) {
+                logger.info("Spotify playlist is up to date, skipping track update");
+            } else {
+                logger.info("Adding tracks to spotify playlist");
+                String snapshotId = addTracksToPlaylist(session, playlist, spotifyUris);
+                playlistSnapshotStore.put(playlist.getId(), new PlaylistSnapshot(snapshotId, urisFingerprint));
+            }
+            syncProgressPublisher.publish(runId, SyncProgress.Stage.WRITTEN, spotifyUris.size(), spotifyUris.size());
 
             // Check if the playlist has a valid cover image
-            checkCoverImage(playlist, playlistTitle);
+            checkCoverImage(session, playlist, playlistTitle, runId);
         } else {
             logger.error("Could not create a playlist for: {}", sourceUrl);
+            syncProgressPublisher.publish(runId, SyncProgress.Stage.FAILED, 0, 0, "Could not create a playlist");
         }
 
         logger.info("Finished updating playlist: {}", playlistTitle);
     }
 
-    private void authCodeRefresh() {
-        try {
-            Optional<String> existingRefreshToken = Settings.readPersistentValue(Settings.PersistentValue.REFRESH_TOKEN);
-            if (existingRefreshToken.isEmpty()) {
-                logger.error("No spotify refresh token found");
-                System.exit(1);
-            }
-
-            spotifyApi.setRefreshToken(existingRefreshToken.get());
-
-            AuthorizationCodeCredentials authorizationCodeCredentials = spotifyApi.authorizationCodeRefresh()
-                    .build()
-                    .execute();
-
-            String accessToken = authorizationCodeCredentials.getAccessToken();
-
-            spotifyApi.setAccessToken(accessToken);
-
-            Settings.savePersistentValue(Settings.PersistentValue.ACCESS_TOKEN, accessToken);
-        } catch (Exception e) {
-            logger.error("Could not refresh access token: {}", e.getMessage(), e);
-        }
+    // Same tracks as last time and nobody changed the playlist since we wrote it
+    private boolean isUnchanged(Playlist playlist, String urisFingerprint) {
+        return playlistSnapshotStore.get(playlist.getId())
+                .filter(snapshot -> snapshot.snapshotId() != null && snapshot.snapshotId().equals(playlist.getSnapshotId()))
+                .filter(snapshot -> snapshot.urisFingerprint().equals(urisFingerprint))
+                .isPresent();
     }
 
-    private void checkCoverImage(Playlist playlist, String playlistTitle) throws IOException, SpotifyWebApiException, ParseException {
-        Image[] playlistCoverImages = spotifyApi.getPlaylistCoverImage(playlist.getId()).build().execute();
+    // The images are part of the filtered playlist read, so no extra request is needed
+    private void checkCoverImage(SpotifySession session, Playlist playlist, String playlistTitle, String runId) throws IOException {
+        Image[] playlistCoverImages = Optional.ofNullable(playlist.getImages()).orElse(new Image[0]);
         if (isValidCoverImage(playlistCoverImages)) {
             logger.info("Valid cover image found for playlist: {}", playlistTitle);
+            syncProgressPublisher.publish(runId, SyncProgress.Stage.COMPLETED);
         } else {
             logger.info("No valid cover image found for playlist: {}", playlistTitle);
-            kafkaStringMessage.send(
+            pipelineProducer.send(SyncRun.accountMessage(
                     KAFKA_TOPIC_SPOTIFY_PLAYLIST_UPDATED,
-                    objectMapper.writeValueAsString(new SpotifyPlaylistDto(playlist.getId(), playlistTitle))
-            );
+                    session.accountId(),
+                    objectMapper.writeValueAsString(new SpotifyPlaylistDto(playlist.getId(), playlistTitle)),
+                    runId
+            )).join();
         }
     }
 
@@ -268,7 +344,10 @@ public class SpotifyService {
     }
 
     @KafkaListener(topics = KAFKA_TOPIC_COVER_IMAGE_GENERATED)
-    public void consumeCoverImageGenerated(String coverImagePairJson) {
+    public void consumeCoverImageGenerated(String coverImagePairJson,
+                                           @Header(name = SyncRun.HEADER_RUN_ID, required = false) String runId,
+                                           @Header(name = SyncRun.HEADER_ACCOUNT, required = false) String accountId,
+                                           Acknowledgment acknowledgment) {
         logger.info("Consumed message from topic: " + KAFKA_TOPIC_COVER_IMAGE_GENERATED);
 
         try {
@@ -276,14 +355,26 @@ public class SpotifyService {
             String playlistId = coverImagePair.identifier();
             byte[] coverImage = coverImagePair.imageData();
 
+            if (idempotencyService.isProcessed(IdempotencyService.STAGE_COVER_UPLOAD, runId, playlistId)) {
+                acknowledgment.acknowledge();
+                return;
+            }
+
             logger.info("Uploading cover image for playlist: {}", playlistId);
 
             String encodedImage = Base64.encodeBase64String(coverImage);
-            spotifyApi.uploadCustomPlaylistCoverImage(playlistId)
+            session(accountId).api().uploadCustomPlaylistCoverImage(playlistId)
                     .image_data(encodedImage)
                     .build()
                     .execute();
             logger.info("Cover image uploaded for playlist: {}", playlistId);
+
+            idempotencyService.markProcessed(IdempotencyService.STAGE_COVER_UPLOAD, runId, playlistId);
+            syncProgressPublisher.publish(runId, SyncProgress.Stage.COVER_UPLOADED);
+            syncProgressPublisher.publish(runId, SyncProgress.Stage.COMPLETED);
+            acknowledgment.acknowledge();
+        } catch (SpotifyRateLimitedException e) {
+            acknowledgment.nack(e.retryAfter());
         } catch (Exception e) {
             logger.error("Could not upload cover image: {}", e.getMessage(), e);
             throw new RuntimeException(e);
@@ -297,9 +388,9 @@ public class SpotifyService {
         ));
     }
 
-    private Optional<String> createPlaylist(String playlistTitle, String sourceUrl) throws IOException, SpotifyWebApiException, ParseException {
-        String currentUserId = spotifyApi.getCurrentUsersProfile().build().execute().getId();
-        Playlist createdPlaylist = spotifyApi.createPlaylist(currentUserId, playlistTitle)
+    private Optional<String> createPlaylist(SpotifySession session, String playlistTitle, String sourceUrl) throws IOException, SpotifyWebApiException, ParseException {
+        String currentUserId = session.api().getCurrentUsersProfile().build().execute().getId();
+        Playlist createdPlaylist = session.api().createPlaylist(currentUserId, playlistTitle)
                 .description(sourceUrl)
                 .collaborative(false)
                 .public_(true)
@@ -308,8 +399,8 @@ public class SpotifyService {
         return Optional.ofNullable(createdPlaylist.getId());
     }
 
-    private Optional<String> findPlaylist(String playlistTitle) throws IOException, SpotifyWebApiException, ParseException {
-        PlaylistSimplified[] currentPlaylists = spotifyApi.getListOfCurrentUsersPlaylists()
+    private Optional<String> findPlaylist(SpotifySession session, String playlistTitle) throws IOException, SpotifyWebApiException, ParseException {
+        PlaylistSimplified[] currentPlaylists = session.api().getListOfCurrentUsersPlaylists()
                 .limit(50)
                 .build()
                 .execute()
@@ -321,42 +412,63 @@ public class SpotifyService {
                 .findFirst();
     }
 
-    private void addTracksToPlaylist(Playlist playlist, List<BeatportTrack> beatportTracks) throws Exception {
-        List<String> spotifyUris = determineSpotifyUris(beatportTracks);
-
+    /**
+     * @return the snapshot id of the playlist after the update
+     */
+    private String addTracksToPlaylist(SpotifySession session, Playlist playlist, List<String> spotifyUris) throws Exception {
         JsonArray itemsToAdd = new JsonArray();
         spotifyUris.forEach(itemsToAdd::add);
 
-        spotifyApi.replacePlaylistsItems(playlist.getId(), itemsToAdd).build().execute();
+        String response = session.api().replacePlaylistsItems(playlist.getId(), itemsToAdd).build().execute();
 
         logger.info("Added {} tracks to spotify playlist.", spotifyUris.size());
+        return readSnapshotId(response);
     }
 
-    private List<String> determineSpotifyUris(List<BeatportTrack> beatportTracks) throws IOException, ParseException, SpotifyWebApiException {
+    // The api answers with {"snapshot_id": "..."}
+    private static String readSnapshotId(String response) throws JsonProcessingException {
+        if (response == null || response.isBlank()) {
+            return null;
+        }
+        return objectMapper.readTree(response).path("snapshot_id").asText(null);
+    }
+
+    private List<String> determineSpotifyUris(SpotifySession session, List<BeatportTrack> beatportTracks) throws IOException, ParseException, SpotifyWebApiException {
         List<String> spotifyUris = new ArrayList<>();
 
         for (BeatportTrack beatportTrack : beatportTracks) {
-            String searchQuery = "%s %s".formatted(
-                    String.join(" ", beatportTrack.artists()),
-                    beatportTrack.title()
-            );
+            determineSpotifyUri(session, beatportTrack, null).ifPresent(spotifyUris::add);
+        }
 
-            // Read from redis cache if available
-            Optional<String> maybeCachedSpotifyUri = getMaybeCachedSpotifyUri(searchQuery);
+        return spotifyUris;
+    }
 
-            if (maybeCachedSpotifyUri.isPresent()) {
-                spotifyUris.add(maybeCachedSpotifyUri.get());
-            } else {
-                Optional<Track> maybeMatchedSpotifyUri = matchSpotifyTrack(searchQuery);
-                if (maybeMatchedSpotifyUri.isPresent()) {
-                    String matchedSpotifyUri = maybeMatchedSpotifyUri.get().getUri();
-                    spotifyUris.add(matchedSpotifyUri);
-                    putSpotifyUriToCache(searchQuery, matchedSpotifyUri);
-                }
-            }
+    // Search results do not depend on the account, so the cache is shared by all accounts
+    private Optional<String> determineSpotifyUri(SpotifySession session, BeatportTrack beatportTrack, String runId) throws IOException, ParseException, SpotifyWebApiException {
+        String searchQuery = SpotifyTrackMatcher.toSearchQuery(beatportTrack);
+
+        // Read from redis cache if available
+        Optional<String> maybeCachedSpotifyUri = getMaybeCachedSpotifyUri(searchQuery);
+        if (maybeCachedSpotifyUri.isPresent()) {
+            return maybeCachedSpotifyUri;
         }
 
-        return spotifyUris;
+        // The local index survives redis restarts, a hit warms the cache again without a search
+        Optional<String> maybeIndexedSpotifyUri = trackMatchIndex.get(searchQuery);
+        if (maybeIndexedSpotifyUri.isPresent()) {
+            putSpotifyUriToCache(searchQuery, maybeIndexedSpotifyUri.get());
+            return maybeIndexedSpotifyUri;
+        }
+
+        // Charts share tracks, only the first request per track within the match window searches
+        return trackMatchRegistry.match(runId, searchQuery, () -> {
+            Optional<String> maybeMatchedSpotifyUri = matchSpotifyTrack(session, searchQuery).map(Track::getUri);
+            maybeMatchedSpotifyUri.ifPresent(matchedSpotifyUri -> {
+                trackMatchIndex.put(searchQuery, matchedSpotifyUri);
+                putSpotifyUriToCache(searchQuery, matchedSpotifyUri);
+            });
+            return maybeMatchedSpotifyUri;
+        });
     }
 
     @SuppressWarnings("DataFlowIssue")
@@ -370,14 +482,33 @@ public class SpotifyService {
         return Optional.ofNullable(value);
     }
 
-    private Optional<Track> matchSpotifyTrack(String searchQuery) throws IOException, ParseException, SpotifyWebApiException {
-        Optional<Track> matched = Optional.empty();
+    /**
+     * Looks up to 50 tracks with a single request.
+     *
+     * @return the tracks in the order of the given ids, null for unknown ids
+     */
+    Track[] lookupTracks(List<String> trackIds) throws IOException, ParseException, SpotifyWebApiException {
+        String[] ids = trackIds.toArray(String[]::new);
+        // Tracks look the same for every account, the first one is used
+        SpotifySession session = sessions.values().iterator().next();
+        session.initialize();
+        try {
+            return session.awaitApi().getSeveralTracks(ids).build().execute();
+        } catch (UnauthorizedException e) {
+            session.authCodeRefresh();
+            return session.awaitApi().getSeveralTracks(ids).build().execute();
+        }
+    }
 
-        Track[] spotifyTracks = spotifyApi.searchTracks(searchQuery).build().execute().getItems();
+    private Optional<Track> matchSpotifyTrack(SpotifySession session, String searchQuery) throws IOException, ParseException, SpotifyWebApiException {
+        Track[] spotifyTracks = session.api().searchTracks(searchQuery)
+                .limit(SpotifyTrackMatcher.SEARCH_LIMIT)
+                .build()
+                .execute()
+                .getItems();
 
-        if (spotifyTracks.length > 0) {
-            matched = Optional.of(spotifyTracks[0]);
-        } else {
+        Optional<Track> matched = SpotifyTrackMatcher.selectMatch(spotifyTracks);
+        if (matched.isEmpty()) {
             logger.info("no match for: {}", searchQuery);
         }
 
@@ -0,0 +1,203 @@
+package de.rouhim.beatporttospotify.spotify;
+
+import de.rouhim.beatporttospotify.config.Settings;
+import org.apache.hc.core5.http.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import se.michaelthelin.spotify.IHttpManager;
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.SpotifyHttpManager;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.exceptions.detailed.BadRequestException;
+import se.michaelthelin.spotify.exceptions.detailed.ForbiddenException;
+import se.michaelthelin.spotify.exceptions.detailed.UnauthorizedException;
+import se.michaelthelin.spotify.model_objects.credentials.AuthorizationCodeCredentials;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Spotify client, token state and rate limit of one spotify account. The rate limit is shared by all instances.
+ */
+public class SpotifySession {
+    private static final URI redirectUri = SpotifyHttpManager.makeUri("https://example.org/");
+
+    private final Logger logger = LoggerFactory.getLogger(SpotifySession.class);
+
+    private final SpotifyAccount account;
+    private final IHttpManager httpManager;
+    private final RateLimiter rateLimiter;
+    private SpotifyApi spotifyApi;
+    private volatile boolean initialized;
+
+    /**
+     * @param httpManager null for the default http manager
+     */
+    SpotifySession(SpotifyAccount account, IHttpManager httpManager, StringRedisTemplate redisTemplate) {
+        this.account = account;
+        this.httpManager = httpManager;
+        this.rateLimiter = new RateLimiter(redisTemplate, account.id(), account.requestsPerSecond());
+    }
+
+    public String accountId() {
+        return account.id();
+    }
+
+    /**
+     * For listener threads, which must not wait for a permit of the rate limit of the account.
+     *
+     * @throws SpotifyRateLimitedException if there is no permit left right now
+     */
+    public SpotifyApi api() {
+        Duration retryAfter = rateLimiter.tryAcquire();
+        if (!retryAfter.isZero()) {
+            throw new SpotifyRateLimitedException("Rate limit of spotify account " + account.id() + " reached", retryAfter);
+        }
+        return spotifyApi;
+    }
+
+    // Waits for a permit of the rate limit of the account, for threads that are not polling kafka
+    public SpotifyApi awaitApi() {
+        rateLimiter.acquire();
+        return spotifyApi;
+    }
+
+    /**
+     * Network and server errors are thrown as is, so the caller can retry.
+     *
+     * @throws SpotifyAuthorizationRequiredException if the account has to be authorized manually
+     */
+    public synchronized void initialize() throws IOException, SpotifyWebApiException, ParseException {
+        if (initialized) {
+            return;
+        }
+
+        SpotifyApi.Builder spotifyApiBuilder = new SpotifyApi.Builder()
+                .setClientId(account.clientId())
+                .setClientSecret(account.clientSecret())
+                .setRedirectUri(redirectUri);
+        if (httpManager != null) {
+            spotifyApiBuilder.setHttpManager(httpManager);
+        }
+        spotifyApi = spotifyApiBuilder.build();
+
+        Optional<String> authCode = Optional.ofNullable(account.authCode());
+        Optional<String> accessToken = Settings.readPersistentValue(Settings.PersistentValue.ACCESS_TOKEN, account.id());
+        Optional<String> refreshToken = Settings.readPersistentValue(Settings.PersistentValue.REFRESH_TOKEN, account.id());
+
+        // If nothing is set, request manual authorization
+        if (accessToken.isEmpty() && refreshToken.isEmpty() && authCode.isEmpty()) {
+            requestManualAuthorization();
+        }
+
+        // If only auth code is set, request access token and refresh token
+        if (accessToken.isEmpty() && refreshToken.isEmpty() && authCode.isPresent()) {
+            try {
+                requestAccessToken(authCode.get());
+            } catch (BadRequestException | UnauthorizedException e) {
+                logger.error(e.getMessage());
+                requestManualAuthorization();
+            }
+        }
+
+        // If only access token is set, request refresh token
+        if (accessToken.isPresent() && refreshToken.isPresent()) {
+            requestRefreshToken(accessToken.get(), refreshToken.get());
+        }
+
+        // Test if access token is valid
+        try {
+            logger.info("Testing access token validity of account {}", account.id());
+            awaitApi().getCurrentUsersProfile().build().execute();
+            logger.info("Access token of account {} is valid", account.id());
+        } catch (BadRequestException | UnauthorizedException | ForbiddenException e) {
+            logger.error(e.getMessage(), e);
+            requestManualAuthorization();
+        }
+
+        initialized = true;
+    }
+
+    public void authCodeRefresh() {
+        Optional<String> existingRefreshToken = Settings.readPersistentValue(Settings.PersistentValue.REFRESH_TOKEN, account.id());
+        if (existingRefreshToken.isEmpty()) {
+            throw new SpotifyAuthorizationRequiredException("No spotify refresh token found for account " + account.id());
+        }
+
+        try {
+            spotifyApi.setRefreshToken(existingRefreshToken.get());
+
+            // Token requests go to the accounts service, they do not count against the rate limit of the web api
+            AuthorizationCodeCredentials authorizationCodeCredentials = spotifyApi.authorizationCodeRefresh()
+                    .build()
+                    .execute();
+
+            String accessToken = authorizationCodeCredentials.getAccessToken();
+
+            spotifyApi.setAccessToken(accessToken);
+
+            Settings.savePersistentValue(Settings.PersistentValue.ACCESS_TOKEN, account.id(), accessToken);
+        } catch (Exception e) {
+            logger.error("Could not refresh access token of account {}: {}", account.id(), e.getMessage(), e);
+        }
+    }
+
+    private void requestAccessToken(String authCode) throws IOException, SpotifyWebApiException, ParseException {
+        AuthorizationCodeCredentials authorizationCodeCredentials = spotifyApi.authorizationCode(authCode).build().execute();
+
+        String accessToken = authorizationCodeCredentials.getAccessToken();
+        String refreshToken = authorizationCodeCredentials.getRefreshToken();
+
+        // Set access and refresh token for further "spotifyApi" object usage
+        spotifyApi.setAccessToken(accessToken);
+        spotifyApi.setRefreshToken(refreshToken);
+
+        Settings.savePersistentValue(Settings.PersistentValue.ACCESS_TOKEN, account.id(), accessToken);
+        Settings.savePersistentValue(Settings.PersistentValue.REFRESH_TOKEN, account.id(), refreshToken);
+    }
+
+    private void requestRefreshToken(String accessToken, String refreshToken) throws IOException, SpotifyWebApiException, ParseException {
+        spotifyApi.setAccessToken(accessToken);
+        spotifyApi.setRefreshToken(refreshToken);
+
+        AuthorizationCodeCredentials authorizationCodeCredentials = spotifyApi.authorizationCodeRefresh().build().execute();
+
+        String newAccessToken = authorizationCodeCredentials.getAccessToken();
+        String newRefreshToken = authorizationCodeCredentials.getRefreshToken();
+
+        if (authorizationCodeCredentials.getAccessToken() == null || authorizationCodeCredentials.getRefreshToken() == null) {
+            logger.warn("Could not refresh access token of account {}", account.id());
+            return;
+        }
+
+        // Set access and refresh token for further "spotifyApi" object usage
+        spotifyApi.setAccessToken(newAccessToken);
+        spotifyApi.setRefreshToken(newRefreshToken);
+
+        Settings.savePersistentValue(Settings.PersistentValue.ACCESS_TOKEN, account.id(), newAccessToken);
+        Settings.savePersistentValue(Settings.PersistentValue.REFRESH_TOKEN, account.id(), newRefreshToken);
+    }
+
+    private void requestManualAuthorization() throws IOException, SpotifyWebApiException, ParseException {
+        logger.info("Requesting manual authorization of account {}", account.id());
+
+        // Remove access and refresh token
+        Settings.deletePersistentValue(Settings.PersistentValue.ACCESS_TOKEN, account.id());
+        Settings.deletePersistentValue(Settings.PersistentValue.REFRESH_TOKEN, account.id());
+
+        URI authUrl = spotifyApi.authorizationCodeUri()
+                .scope("playlist-modify-public playlist-modify-private ugc-image-upload")
+                .build().execute();
+
+        String authCodeEnvValue = Settings.DEFAULT_ACCOUNT.equals(account.id())
+                ? "SPOTIFY_AUTH_CODE"
+                : "SPOTIFY_AUTH_CODE_" + account.id().toUpperCase();
+        logger.info("Visit: {}", authUrl.toString());
+        logger.info("Then enter the retrieved code to {} and restart", authCodeEnvValue);
+
+        throw new SpotifyAuthorizationRequiredException("Spotify account " + account.id() + " has to be authorized, set " + authCodeEnvValue);
+    }
+}
@@ -0,0 +1,32 @@
+package de.rouhim.beatporttospotify.spotify;
+
+import de.rouhim.beatporttospotify.beatport.BeatportTrack;
+import se.michaelthelin.spotify.model_objects.specification.Track;
+
+import java.util.Optional;
+
+/**
+ * Builds spotify search queries for beatport tracks and picks the matching track from the search results.
+ */
+public final class SpotifyTrackMatcher {
+    // Only the first search result is used, so there is no need to download more
+    public static final int SEARCH_LIMIT = 1;
+
+    private SpotifyTrackMatcher() {
+    }
+
+    public static String toSearchQuery(BeatportTrack beatportTrack) {
+        return "%s %s".formatted(
+                String.join(" ", beatportTrack.artists()),
+                beatportTrack.title()
+        );
+    }
+
+    public static Optional<Track> selectMatch(Track[] spotifyTracks) {
+        if (spotifyTracks == null || spotifyTracks.length == 0) {
+            return Optional.empty();
+        }
+
+        return Optional.of(spotifyTracks[0]);
+    }
+}
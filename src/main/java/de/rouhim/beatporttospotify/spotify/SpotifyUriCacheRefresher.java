@@ -0,0 +1,137 @@
+package de.rouhim.beatporttospotify.spotify;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import se.michaelthelin.spotify.model_objects.specification.Track;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static de.rouhim.beatporttospotify.spotify.SpotifyService.CACHE_NAME_SPOTIFY_URI;
+
+/**
+ * Revalidates cached spotify uris shortly before they expire, so the next run finds a warm cache.
+ * Still available tracks are looked up 50 at a time and their cache entry is extended,
+ * entries of unavailable tracks are evicted, also from the track match index, and go through the search again.
+ */
+@Service
+public class SpotifyUriCacheRefresher {
+    private static final String CACHE_KEY_PREFIX = CACHE_NAME_SPOTIFY_URI + "::";
+    private static final String TRACK_URI_PREFIX = "spotify:track:";
+    private static final String LEASE_KEY = "spotify-uri-refresh:lease";
+    private static final String INSTANCE_ID = ManagementFactory.getRuntimeMXBean().getName();
+    private static final Duration REFRESH_AHEAD = Duration.ofHours(6);
+    private static final Duration LEASE_TTL = Duration.ofMinutes(50);
+    private static final int BATCH_SIZE = 50;
+
+    private final Logger logger = LoggerFactory.getLogger(SpotifyUriCacheRefresher.class);
+
+    private final SpotifyService spotifyService;
+    private final StringRedisTemplate redisTemplate;
+    private final CacheManager cacheManager;
+    private final TrackMatchIndex trackMatchIndex;
+
+    public SpotifyUriCacheRefresher(SpotifyService spotifyService,
+                                    StringRedisTemplate redisTemplate,
+                                    CacheManager cacheManager,
+                                    TrackMatchIndex trackMatchIndex) {
+        this.spotifyService = spotifyService;
+        this.redisTemplate = redisTemplate;
+        this.cacheManager = cacheManager;
+        this.trackMatchIndex = trackMatchIndex;
+    }
+
+    // every hour, by one instance only
+    @Scheduled(fixedRate = 3_600_000, initialDelay = 600_000)
+    public void refreshExpiringEntries() {
+        Boolean leased = redisTemplate.opsForValue().setIfAbsent(LEASE_KEY, INSTANCE_ID, LEASE_TTL);
+        if (!Boolean.TRUE.equals(leased)) {
+            logger.debug("Spotify uri cache is refreshed by another instance");
+            return;
+        }
+
+        Cache cache = cacheManager.getCache(CACHE_NAME_SPOTIFY_URI);
+        if (cache == null) {
+            return;
+        }
+
+        // search query -> spotify track id
+        Map<String, String> expiring = findExpiringEntries(cache);
+        List<String> searchQueries = new ArrayList<>(expiring.keySet());
+
+        int extended = 0;
+        int evicted = 0;
+        for (int from = 0; from < searchQueries.size(); from += BATCH_SIZE) {
+            List<String> batch = searchQueries.subList(from, Math.min(from + BATCH_SIZE, searchQueries.size()));
+            try {
+                Track[] tracks = spotifyService.lookupTracks(batch.stream().map(expiring::get).toList());
+
+                for (int i = 0; i < batch.size(); i++) {
+                    String searchQuery = batch.get(i);
+                    Track track = i < tracks.length ? tracks[i] : null;
+
+                    if (isAvailable(track)) {
+                        // Writing the entry again restarts its ttl
+                        cache.put(searchQuery, track.getUri());
+                        extended++;
+                    } else {
+                        cache.evict(searchQuery);
+                        trackMatchIndex.remove(searchQuery);
+                        evicted++;
+                    }
+                }
+            } catch (Exception e) {
+                // The remaining entries simply expire
+                logger.warn("Could not revalidate spotify uris: {}", e.getMessage(), e);
+                break;
+            }
+        }
+
+        logger.info("Refreshed spotify uri cache: {} expiring, {} extended, {} evicted", expiring.size(), extended, evicted);
+    }
+
+    private Map<String, String> findExpiringEntries(Cache cache) {
+        Map<String, String> expiring = new LinkedHashMap<>();
+
+        try (Cursor<String> cursor = redisTemplate.scan(ScanOptions.scanOptions().match(CACHE_KEY_PREFIX + "*").count(500).build())) {
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                Long ttlMillis = redisTemplate.getExpire(key, TimeUnit.MILLISECONDS);
+                if (ttlMillis == null || ttlMillis < 0 || ttlMillis > REFRESH_AHEAD.toMillis()) {
+                    continue;
+                }
+
+                String searchQuery = key.substring(CACHE_KEY_PREFIX.length());
+                String spotifyUri = cache.get(searchQuery, String.class);
+                if (spotifyUri != null && spotifyUri.startsWith(TRACK_URI_PREFIX)) {
+                    expiring.put(searchQuery, spotifyUri.substring(TRACK_URI_PREFIX.length()));
+                }
+            }
+        }
+
+        return expiring;
+    }
+
+    // Spotify only reports is_playable for requests with a market, otherwise the available markets tell
+    private static boolean isAvailable(Track track) {
+        if (track == null) {
+            return false;
+        }
+        if (track.getIsPlayable() != null) {
+            return track.getIsPlayable();
+        }
+        return track.getAvailableMarkets() != null && track.getAvailableMarkets().length > 0;
+    }
+}
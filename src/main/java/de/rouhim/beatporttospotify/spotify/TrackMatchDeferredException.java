@@ -0,0 +1,10 @@
+package de.rouhim.beatporttospotify.spotify;
+
+/**
+ * The track is searched by another consumer right now, the match request is deferred until the result is there.
+ */
+public class TrackMatchDeferredException extends RuntimeException {
+    public TrackMatchDeferredException(String message) {
+        super(message);
+    }
+}
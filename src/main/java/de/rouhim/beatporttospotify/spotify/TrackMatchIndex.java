@@ -0,0 +1,239 @@
+package de.rouhim.beatporttospotify.spotify;
+
+import de.rouhim.beatporttospotify.config.Settings;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Durable index of matched spotify uris in the data dir, the source of truth behind the spotify uri cache.
+ * It survives redis restarts and evictions, so they do not cause a search for every track again.
+ * <p>
+ * The index file is an append-only log of put and remove records, each protected by a crc.
+ * It is memory mapped and replayed into memory on startup; a torn record at the end, e.g. after a crash, is cut off.
+ * Records: type (1 byte), key length (int), key, uri length (int), uri, crc32 (int). Removals have no uri.
+ */
+@Component
+public class TrackMatchIndex implements Closeable {
+    static final String FILE_NAME = "track-match-index.log";
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_REMOVE = 2;
+    // Compacted on startup once the stale records outweigh the live ones
+    private static final int MIN_STALE_RECORDS_FOR_COMPACTION = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(TrackMatchIndex.class);
+
+    private final Path file;
+    private final Map<String, String> spotifyUris = new ConcurrentHashMap<>();
+    private FileChannel appendChannel;
+
+    public TrackMatchIndex() throws IOException {
+        this(Settings.getDataDir().toPath().resolve(FILE_NAME));
+    }
+
+    public TrackMatchIndex(Path file) throws IOException {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Normalizes a search query of artists and title, so case, accents and spacing do not matter.
+     */
+    public static String normalize(String searchQuery) {
+        return Normalizer.normalize(searchQuery, Normalizer.Form.NFKD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.ROOT)
+                .replaceAll("\\s+", " ")
+                .trim();
+    }
+
+    public Optional<String> get(String searchQuery) {
+        return Optional.ofNullable(spotifyUris.get(normalize(searchQuery)));
+    }
+
+    // Check, append and map update are one step, so the log and the map never disagree
+    public synchronized void put(String searchQuery, String spotifyUri) {
+        String key = normalize(searchQuery);
+        if (spotifyUri.equals(spotifyUris.get(key))) {
+            return;
+        }
+
+        append(TYPE_PUT, key, spotifyUri);
+        spotifyUris.put(key, spotifyUri);
+    }
+
+    public synchronized void remove(String searchQuery) {
+        String key = normalize(searchQuery);
+        if (spotifyUris.containsKey(key)) {
+            append(TYPE_REMOVE, key, null);
+            spotifyUris.remove(key);
+        }
+    }
+
+    public int size() {
+        return spotifyUris.size();
+    }
+
+    /**
+     * @return normalized key to spotify uri, sorted by key
+     */
+    public Map<String, String> entries() {
+        return new TreeMap<>(spotifyUris);
+    }
+
+    @Override
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (appendChannel != null) {
+            appendChannel.force(false);
+            appendChannel.close();
+            appendChannel = null;
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        long startedAt = System.currentTimeMillis();
+        int records = 0;
+        long validLength = 0;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (mapped.hasRemaining()) {
+                if (!replay(mapped)) {
+                    break;
+                }
+                records++;
+                validLength = mapped.position();
+            }
+        }
+
+        if (validLength < Files.size(file)) {
+            logger.warn("Cutting off {} bytes of an incomplete record at the end of {}", Files.size(file) - validLength, file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+
+        int staleRecords = records - spotifyUris.size();
+        if (staleRecords >= MIN_STALE_RECORDS_FOR_COMPACTION && staleRecords > spotifyUris.size()) {
+            compact();
+        }
+
+        logger.info("Loaded {} track matches from {} in {} ms", spotifyUris.size(), file, System.currentTimeMillis() - startedAt);
+    }
+
+    // Applies the next record, false if it is incomplete or corrupt
+    private boolean replay(ByteBuffer buffer) {
+        int start = buffer.position();
+        try {
+            byte type = buffer.get();
+            String key = readString(buffer);
+            String spotifyUri = type == TYPE_PUT ? readString(buffer) : null;
+            int end = buffer.position();
+            int crc = buffer.getInt();
+
+            if ((type != TYPE_PUT && type != TYPE_REMOVE) || crc != crc(buffer, start, end)) {
+                return false;
+            }
+
+            if (type == TYPE_PUT) {
+                spotifyUris.put(key, spotifyUri);
+            } else {
+                spotifyUris.remove(key);
+            }
+            return true;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // Writes the live entries to a new file, which replaces the old one
+    private void compact() throws IOException {
+        Path compacted = file.resolveSibling(file.getFileName() + ".compacting");
+        try (FileChannel channel = FileChannel.open(compacted,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Map.Entry<String, String> entry : spotifyUris.entrySet()) {
+                write(channel, encode(TYPE_PUT, entry.getKey(), entry.getValue()));
+            }
+            channel.force(false);
+        }
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Compacted {} to {} track matches", file, spotifyUris.size());
+    }
+
+    // Called by put and remove, which hold the lock
+    private void append(byte type, String key, String spotifyUri) {
+        try {
+            if (appendChannel == null) {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+                appendChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            write(appendChannel, encode(type, key, spotifyUri));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write to track match index " + file, e);
+        }
+    }
+
+    private static ByteBuffer encode(byte type, String key, String spotifyUri) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] uriBytes = spotifyUri == null ? new byte[0] : spotifyUri.getBytes(StandardCharsets.UTF_8);
+        int uriLength = type == TYPE_PUT ? Integer.BYTES + uriBytes.length : 0;
+
+        ByteBuffer buffer = ByteBuffer.allocate(1 + Integer.BYTES + keyBytes.length + uriLength + Integer.BYTES);
+        buffer.put(type);
+        buffer.putInt(keyBytes.length).put(keyBytes);
+        if (type == TYPE_PUT) {
+            buffer.putInt(uriBytes.length).put(uriBytes);
+        }
+        buffer.putInt(crc(buffer, 0, buffer.position()));
+        return buffer.flip();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(ByteBuffer buffer, int from, int to) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(from, to - from));
+        return (int) crc.getValue();
+    }
+}
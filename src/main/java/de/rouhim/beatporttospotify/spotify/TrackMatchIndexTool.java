@@ -0,0 +1,65 @@
+package de.rouhim.beatporttospotify.spotify;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Exports and imports the track match index of the data dir as json lines, e.g. to warm a new node without any search.
+ * The application must not run on the same data dir during an import, it only reads the index on startup.
+ * <p>
+ * Run with: java -cp "/app/application.jar:/app/lib/*" de.rouhim.beatporttospotify.spotify.TrackMatchIndexTool export|import file
+ */
+public class TrackMatchIndexTool {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 || !(args[0].equals("export") || args[0].equals("import"))) {
+            System.err.println("Usage: TrackMatchIndexTool export|import <file>");
+            System.exit(1);
+        }
+
+        Path file = Path.of(args[1]);
+        try (TrackMatchIndex trackMatchIndex = new TrackMatchIndex()) {
+            int count = args[0].equals("export")
+                    ? exportTo(trackMatchIndex, file)
+                    : importFrom(trackMatchIndex, file);
+            System.out.printf("%sed %d track matches, the index now holds %d%n", args[0], count, trackMatchIndex.size());
+        }
+    }
+
+    // One {"key": ..., "spotifyUri": ...} object per line
+    static int exportTo(TrackMatchIndex trackMatchIndex, Path file) throws IOException {
+        Map<String, String> entries = trackMatchIndex.entries();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                writer.write(objectMapper.writeValueAsString(Map.of("key", entry.getKey(), "spotifyUri", entry.getValue())));
+                writer.newLine();
+            }
+        }
+        return entries.size();
+    }
+
+    static int importFrom(TrackMatchIndex trackMatchIndex, Path file) throws IOException {
+        int imported = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonNode entry = objectMapper.readTree(line);
+                trackMatchIndex.put(entry.path("key").asText(), entry.path("spotifyUri").asText());
+                imported++;
+            }
+        }
+        return imported;
+    }
+}
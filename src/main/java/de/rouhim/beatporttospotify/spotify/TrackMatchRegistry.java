@@ -0,0 +1,102 @@
+package de.rouhim.beatporttospotify.spotify;
+
+import de.rouhim.beatporttospotify.sync.IdempotencyService;
+import org.apache.hc.core5.http.ParseException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Single flight for spotify searches. The same track often sits in several charts, which are scheduled
+ * independently, so only the first match request of a normalized track within {@link #MATCH_WINDOW} searches,
+ * by claiming the track in redis. A request that finds the search of another consumer in progress does not wait
+ * for it, it is deferred to the deferred match topic until the shared result is there.
+ * Requests without run id always search.
+ */
+@Component
+public class TrackMatchRegistry {
+    private static final String CLAIM_KEY_PREFIX = "track-match:claim:";
+    private static final String SAVED_KEY_PREFIX = "track-match:saved:";
+    private static final String PENDING = "pending";
+    private static final String DONE_PREFIX = "done:";
+    // A search waits for the rate limiter at most, the claim of a crashed instance expires after this
+    private static final Duration CLAIM_TTL = Duration.ofMinutes(1);
+    // Not found tracks are shared as well, they are searched again once the window is over
+    static final Duration MATCH_WINDOW = Duration.ofHours(6);
+    private static final Duration SAVED_TTL = Duration.ofDays(2);
+
+    private final StringRedisTemplate redisTemplate;
+
+    public TrackMatchRegistry(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @FunctionalInterface
+    public interface Search {
+        Optional<String> search() throws IOException, ParseException, SpotifyWebApiException;
+    }
+
+    /**
+     * Runs the search for the given query once per match window, later requests get the shared result.
+     *
+     * @param runId run of the request, the saved searches are counted per run
+     * @return the matched spotify uri, empty if the track was not found
+     * @throws TrackMatchDeferredException if the search of the track is in progress elsewhere
+     */
+    public Optional<String> match(String runId, String searchQuery, Search search) throws IOException, ParseException, SpotifyWebApiException {
+        if (runId == null) {
+            return search.search();
+        }
+
+        String claimKey = CLAIM_KEY_PREFIX + IdempotencyService.fingerprint(TrackMatchIndex.normalize(searchQuery));
+
+        if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(claimKey, PENDING, CLAIM_TTL))) {
+            Optional<String> result;
+            try {
+                result = search.search();
+            } catch (Exception e) {
+                // Deferred requests claim the track again and search themselves
+                redisTemplate.delete(claimKey);
+                throw e;
+            }
+            redisTemplate.opsForValue().set(claimKey, DONE_PREFIX + result.orElse(""), MATCH_WINDOW);
+            return result;
+        }
+
+        String claim = redisTemplate.opsForValue().get(claimKey);
+        if (claim != null && claim.startsWith(DONE_PREFIX)) {
+            countSaved(runId);
+            String spotifyUri = claim.substring(DONE_PREFIX.length());
+            return spotifyUri.isEmpty() ? Optional.empty() : Optional.of(spotifyUri);
+        }
+        if (claim != null) {
+            throw new TrackMatchDeferredException("Search is in progress elsewhere: " + searchQuery);
+        }
+
+        // The claim expired in the meantime
+        return search.search();
+    }
+
+    /**
+     * @return number of searches saved so far in the given run, by all instances
+     */
+    public long savedSearches(String runId) {
+        if (runId == null) {
+            return 0;
+        }
+        String saved = redisTemplate.opsForValue().get(SAVED_KEY_PREFIX + runId);
+        return saved == null ? 0 : Long.parseLong(saved);
+    }
+
+    private void countSaved(String runId) {
+        String savedKey = SAVED_KEY_PREFIX + runId;
+        Long saved = redisTemplate.opsForValue().increment(savedKey);
+        if (saved != null && saved == 1) {
+            redisTemplate.expire(savedKey, SAVED_TTL);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package de.rouhim.beatporttospotify.startup;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Down until the deferred startup completed, part of the readiness group of the fast-startup profile.
+ */
+@Component("deferredStartup")
+public class DeferredStartupHealthIndicator implements HealthIndicator {
+    private final DeferredStartupService deferredStartupService;
+
+    public DeferredStartupHealthIndicator(DeferredStartupService deferredStartupService) {
+        this.deferredStartupService = deferredStartupService;
+    }
+
+    @Override
+    public Health health() {
+        return deferredStartupService.isCompleted()
+                ? Health.up().build()
+                : Health.down().withDetail("reason", "startup in progress").build();
+    }
+}
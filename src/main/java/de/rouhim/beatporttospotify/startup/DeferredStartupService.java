@@ -0,0 +1,133 @@
+package de.rouhim.beatporttospotify.startup;
+
+import de.rouhim.beatporttospotify.image.CoverRenderPool;
+import de.rouhim.beatporttospotify.scheduler.SchedulerService;
+import de.rouhim.beatporttospotify.spotify.SpotifyAuthorizationRequiredException;
+import de.rouhim.beatporttospotify.spotify.SpotifyService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * With deferred startup (profile fast-startup) the context starts without any network calls, AWT setup or sync.
+ * Once the application is up, the spotify client is initialized in the background, retrying until spotify is reachable,
+ * then the cover workers are warmed up, the kafka listeners are started and the initial sync is triggered.
+ * The readiness probe reports down until then, see DeferredStartupHealthIndicator.
+ */
+@Service
+public class DeferredStartupService {
+    private static final long RETRY_DELAY_MILLIS = 10_000;
+
+    private final Logger logger = LoggerFactory.getLogger(DeferredStartupService.class);
+
+    private final ApplicationContext applicationContext;
+    private final SpotifyService spotifyService;
+    private final CoverRenderPool coverRenderPool;
+    private final SchedulerService schedulerService;
+    private final KafkaListenerEndpointRegistry listenerRegistry;
+
+    @Value("${startup.deferred:false}")
+    private boolean deferredStartup;
+    private volatile boolean completed;
+
+    public DeferredStartupService(ApplicationContext applicationContext,
+                                  SpotifyService spotifyService,
+                                  CoverRenderPool coverRenderPool,
+                                  SchedulerService schedulerService,
+                                  KafkaListenerEndpointRegistry listenerRegistry) {
+        this.applicationContext = applicationContext;
+        this.spotifyService = spotifyService;
+        this.coverRenderPool = coverRenderPool;
+        this.schedulerService = schedulerService;
+        this.listenerRegistry = listenerRegistry;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!deferredStartup) {
+            completed = true;
+            logReady();
+            return;
+        }
+
+        // Spring Boot accepts traffic right after this event, the readiness probe is held back by the health indicator
+        Thread.ofPlatform().name("deferred-startup").start(this::completeStartup);
+    }
+
+    // Retried until it succeeds, the steps may run again: listeners are only started once and the run is leased
+    private void completeStartup() {
+        while (true) {
+            try {
+                initializeSpotify();
+                coverRenderPool.warmUp();
+
+                listenerRegistry.getAllListenerContainers().stream()
+                        .filter(container -> !container.isRunning())
+                        .forEach(MessageListenerContainer::start);
+
+                schedulerService.runTask();
+
+                completed = true;
+                AvailabilityChangeEvent.publish(applicationContext, ReadinessState.ACCEPTING_TRAFFIC);
+                logReady();
+                return;
+            } catch (SpotifyAuthorizationRequiredException e) {
+                // Stays not ready, a retry does not help until the auth code is configured
+                logger.error("Deferred startup stopped: {}", e.getMessage());
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Deferred startup failed, retrying in {} ms", RETRY_DELAY_MILLIS, e);
+            }
+
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true once the application is fully started, always true without deferred startup after it is up
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    // A network failure is retried instead of stopping the application
+    private void initializeSpotify() throws InterruptedException {
+        while (true) {
+            try {
+                spotifyService.initialize();
+                return;
+            } catch (SpotifyAuthorizationRequiredException e) {
+                throw e;
+            } catch (IOException e) {
+                logger.warn("Spotify is not reachable, retrying in {} ms: {}", RETRY_DELAY_MILLIS, e.getMessage());
+            } catch (Exception e) {
+                logger.error("Could not initialize spotify, retrying in {} ms", RETRY_DELAY_MILLIS, e);
+            }
+            Thread.sleep(RETRY_DELAY_MILLIS);
+        }
+    }
+
+    // Parsed by benchmark/startup-benchmark.sh
+    private void logReady() {
+        logger.info("Ready after {} ms since JVM start", ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+}
@@ -0,0 +1,64 @@
+package de.rouhim.beatporttospotify.sync;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Remembers which stage already finished which message of a sync run, so a redelivered message
+ * (e.g. after a crash before the offset commit) is skipped instead of repeating parsing or spotify writes.
+ * Messages without run id are always processed.
+ */
+@Service
+public class IdempotencyService {
+    public static final String STAGE_PARSE = "parse";
+    public static final String STAGE_PLAYLIST_WRITE = "playlist-write";
+    public static final String STAGE_COVER_RENDER = "cover-render";
+    public static final String STAGE_COVER_UPLOAD = "cover-upload";
+
+    private static final String KEY_PREFIX = "idempotency:";
+    private static final Duration PROCESSED_TTL = Duration.ofDays(2);
+
+    private final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    public IdempotencyService(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    public boolean isProcessed(String stage, String runId, String messageKey) {
+        if (runId == null) {
+            return false;
+        }
+
+        boolean processed = Boolean.TRUE.equals(redisTemplate.hasKey(key(stage, runId, messageKey)));
+        if (processed) {
+            logger.info("Skipping already processed message of run {} in stage {}: {}", runId, stage, messageKey);
+        }
+        return processed;
+    }
+
+    public void markProcessed(String stage, String runId, String messageKey) {
+        if (runId == null) {
+            return;
+        }
+
+        redisTemplate.opsForValue().set(key(stage, runId, messageKey), Instant.now().toString(), PROCESSED_TTL);
+    }
+
+    // Short, stable key for payloads that have no natural id
+    public static String fingerprint(String payload) {
+        return DigestUtils.md5DigestAsHex(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String key(String stage, String runId, String messageKey) {
+        return KEY_PREFIX + stage + ":" + runId + ":" + messageKey;
+    }
+}
@@ -0,0 +1,98 @@
+package de.rouhim.beatporttospotify.sync;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the messages of all stages. Every send is tracked until the broker acknowledged it:
+ * failures are logged, outcome and latency are published as pipeline.producer.send metrics per topic.
+ * The number of unacknowledged sends is limited, so a slow broker slows down the stages instead of piling up records.
+ * Batching and compression are configured below spring.kafka.producer.
+ */
+@Service
+public class PipelineProducer {
+    private final Logger logger = LoggerFactory.getLogger(PipelineProducer.class);
+
+    private final KafkaTemplate<String, String> kafkaStringMessage;
+    private final MeterRegistry meterRegistry;
+    private final Semaphore inFlight;
+    private final Duration maxBlock;
+
+    public PipelineProducer(KafkaTemplate<String, String> kafkaStringMessage,
+                            MeterRegistry meterRegistry,
+                            @Value("${pipeline.producer.max-in-flight:1000}") int maxInFlight,
+                            @Value("${pipeline.producer.max-block:60s}") Duration maxBlock) {
+        this.kafkaStringMessage = kafkaStringMessage;
+        this.meterRegistry = meterRegistry;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.maxBlock = maxBlock;
+
+        Gauge.builder("pipeline.producer.in.flight", inFlight, permits -> maxInFlight - permits.availablePermits())
+                .description("Sends that were not acknowledged by the broker yet")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Sends asynchronously, blocks only while too many sends are in flight.
+     *
+     * @throws IllegalStateException if no send was acknowledged within pipeline.producer.max-block
+     */
+    public CompletableFuture<SendResult<String, String>> send(ProducerRecord<String, String> record) {
+        acquire(record.topic());
+        long startedAt = System.nanoTime();
+
+        CompletableFuture<SendResult<String, String>> sent;
+        try {
+            sent = kafkaStringMessage.send(record);
+        } catch (RuntimeException e) {
+            // e.g. the producer buffer stayed full for max.block.ms
+            completed(record, startedAt, e);
+            throw e;
+        }
+        return sent.whenComplete((result, e) -> completed(record, startedAt, e));
+    }
+
+    private void acquire(String topic) {
+        if (inFlight.tryAcquire()) {
+            return;
+        }
+
+        logger.info("Too many unacknowledged sends, waiting before sending to {}", topic);
+        try {
+            if (!inFlight.tryAcquire(maxBlock.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("No send to kafka was acknowledged within " + maxBlock);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to send to " + topic, e);
+        }
+    }
+
+    private void completed(ProducerRecord<String, String> record, long startedAt, Throwable failure) {
+        inFlight.release();
+
+        if (failure != null) {
+            logger.error("Could not send message to {} with key {}: {}", record.topic(), record.key(), failure.getMessage(), failure);
+        }
+
+        Timer.builder("pipeline.producer.send")
+                .description("Sends until the broker acknowledged them")
+                .tag("topic", record.topic())
+                .tag("outcome", failure == null ? "success" : "failure")
+                .register(meterRegistry)
+                .record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,26 @@
+package de.rouhim.beatporttospotify.sync;
+
+/**
+ * Progress of a chart in an on demand sync run, published by the stages to the sync progress topic.
+ *
+ * @param done   e.g. the number of matched tracks, 0 if the stage has no count
+ * @param total  e.g. the number of tracks of the chart, 0 if the stage has no count
+ * @param detail failure message or null
+ */
+public record SyncProgress(String runId, Stage stage, int done, int total, String detail) {
+
+    public boolean isTerminal() {
+        return stage == Stage.COMPLETED || stage == Stage.FAILED;
+    }
+
+    public enum Stage {
+        REQUESTED,
+        FETCHED,
+        PARSED,
+        MATCHED,
+        WRITTEN,
+        COVER_UPLOADED,
+        COMPLETED,
+        FAILED
+    }
+}
@@ -0,0 +1,77 @@
+package de.rouhim.beatporttospotify.sync;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_SYNC_PROGRESS;
+
+/**
+ * Publishes the progress of on demand sync runs. Scheduled runs are not reported, so their stages send no extra messages.
+ * The latest progress of a run is kept in redis for clients that join a run later.
+ */
+@Service
+public class SyncProgressPublisher {
+    public static final String ON_DEMAND_RUN_PREFIX = "on-demand-";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String LATEST_KEY_PREFIX = "sync-progress:";
+    private static final Duration LATEST_TTL = Duration.ofHours(1);
+
+    private final Logger logger = LoggerFactory.getLogger(SyncProgressPublisher.class);
+
+    private final PipelineProducer pipelineProducer;
+    private final StringRedisTemplate redisTemplate;
+
+    public SyncProgressPublisher(PipelineProducer pipelineProducer, StringRedisTemplate redisTemplate) {
+        this.pipelineProducer = pipelineProducer;
+        this.redisTemplate = redisTemplate;
+    }
+
+    public static boolean isOnDemand(String runId) {
+        return runId != null && runId.startsWith(ON_DEMAND_RUN_PREFIX);
+    }
+
+    public void publish(String runId, SyncProgress.Stage stage) {
+        publish(runId, stage, 0, 0, null);
+    }
+
+    public void publish(String runId, SyncProgress.Stage stage, int done, int total) {
+        publish(runId, stage, done, total, null);
+    }
+
+    // Progress is best effort, a lost update must not fail the stage
+    public void publish(String runId, SyncProgress.Stage stage, int done, int total, String detail) {
+        if (!isOnDemand(runId)) {
+            return;
+        }
+
+        try {
+            String json = objectMapper.writeValueAsString(new SyncProgress(runId, stage, done, total, detail));
+            redisTemplate.opsForValue().set(LATEST_KEY_PREFIX + runId, json, LATEST_TTL);
+            // Keyed by the run, so the progress of a run is read in order
+            pipelineProducer.send(SyncRun.message(KAFKA_TOPIC_SYNC_PROGRESS, runId, json, runId));
+        } catch (Exception e) {
+            logger.warn("Could not publish progress {} of run {}: {}", stage, runId, e.getMessage());
+        }
+    }
+
+    public Optional<SyncProgress> latest(String runId) {
+        return Optional.ofNullable(redisTemplate.opsForValue().get(LATEST_KEY_PREFIX + runId))
+                .flatMap(SyncProgressPublisher::fromJson);
+    }
+
+    public static Optional<SyncProgress> fromJson(String json) {
+        try {
+            return Optional.of(objectMapper.readValue(json, SyncProgress.class));
+        } catch (JsonProcessingException e) {
+            return Optional.empty();
+        }
+    }
+}
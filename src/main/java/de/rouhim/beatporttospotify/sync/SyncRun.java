@@ -0,0 +1,55 @@
+package de.rouhim.beatporttospotify.sync;
+
+import de.rouhim.beatporttospotify.config.Settings;
+import org.apache.kafka.clients.producer.ProducerRecord;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * A sync run is one pass of all charts through the pipeline. Its id travels along as kafka header,
+ * so every stage can tell a redelivered message of the same run apart from the next run.
+ */
+public final class SyncRun {
+    public static final String HEADER_RUN_ID = "sync-run-id";
+    public static final String HEADER_FENCING_TOKEN = "sync-fencing-token";
+    public static final String HEADER_ACCOUNT = "spotify-account";
+
+    private SyncRun() {
+    }
+
+    public static String newRunId() {
+        return UUID.randomUUID().toString();
+    }
+
+    // Creates a message for the given topic, carrying the run id if known
+    public static ProducerRecord<String, String> message(String topic, String payload, String runId) {
+        return message(topic, null, payload, runId);
+    }
+
+    // Messages with the same key end up on the same partition, in order
+    public static ProducerRecord<String, String> message(String topic, String key, String payload, String runId) {
+        ProducerRecord<String, String> record = new ProducerRecord<>(topic, key, payload);
+        if (runId != null) {
+            record.headers().add(HEADER_RUN_ID, runId.getBytes(StandardCharsets.UTF_8));
+        }
+        return record;
+    }
+
+    // Keyed by the account, so the messages of an account are sharded to one partition and handled in order
+    public static ProducerRecord<String, String> accountMessage(String topic, String accountId, String payload, String runId) {
+        return withAccount(message(topic, accountId, payload, runId), accountId);
+    }
+
+    public static ProducerRecord<String, String> withAccount(ProducerRecord<String, String> record, String accountId) {
+        if (accountId != null) {
+            record.headers().add(HEADER_ACCOUNT, accountId.getBytes(StandardCharsets.UTF_8));
+        }
+        return record;
+    }
+
+    // Messages without account header were sent before multi account support, they belong to the default account
+    public static String accountOrDefault(String accountId) {
+        return accountId == null ? Settings.DEFAULT_ACCOUNT : accountId;
+    }
+}
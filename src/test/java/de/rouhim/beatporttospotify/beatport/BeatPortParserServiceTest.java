@@ -16,7 +16,7 @@ class BeatPortParserServiceTest {
         String url = "https://www.beatport.com/genre/hard-dance-hardcore/8/top-100";
 
         // WHEN parsing the url
-        BeatportPlaylist parse = new BeatPortParserService(null).parse(url);
+        BeatportPlaylist parse = new BeatPortParserService(null, null, null, null, null).parse(url);
 
         // THEN the correct title should be parsed
         assertThat(parse.url()).isEqualTo(url);
@@ -0,0 +1,55 @@
+package de.rouhim.beatporttospotify.image;
+
+import de.rouhim.beatporttospotify.sync.PipelineProducer;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CoverRenderPoolTest {
+    @Test
+    void saturatedPoolPausesListenersAndQueuesRecords() throws Exception {
+        AtomicBoolean pauseRequested = new AtomicBoolean();
+        MessageListenerContainer container = mock(MessageListenerContainer.class);
+        when(container.isPauseRequested()).thenAnswer(invocation -> pauseRequested.get());
+        doAnswer(invocation -> {
+            pauseRequested.set(true);
+            return null;
+        }).when(container).pause();
+        doAnswer(invocation -> {
+            pauseRequested.set(false);
+            return null;
+        }).when(container).resume();
+        KafkaListenerEndpointRegistry listenerRegistry = mock(KafkaListenerEndpointRegistry.class);
+        when(listenerRegistry.getListenerContainer(anyString())).thenReturn(container);
+
+        CoverRenderPool pool = new CoverRenderPool(mock(PipelineProducer.class), listenerRegistry);
+        try {
+            int records = CoverRenderPool.CAPACITY * 2;
+            CountDownLatch rendering = new CountDownLatch(1);
+            CountDownLatch acknowledged = new CountDownLatch(records);
+
+            // Acknowledgment#nack would throw, the records over capacity must be queued
+            for (int i = 0; i < records; i++) {
+                pool.submit(rendering::await, "topic", "{}", null, null, acknowledged::countDown);
+            }
+            assertTrue(pauseRequested.get());
+
+            rendering.countDown();
+            assertTrue(acknowledged.await(10, TimeUnit.SECONDS));
+            assertFalse(pauseRequested.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
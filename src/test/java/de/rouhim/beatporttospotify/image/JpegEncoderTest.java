@@ -0,0 +1,45 @@
+package de.rouhim.beatporttospotify.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JpegEncoderTest {
+    @Test
+    void plainImageIsEncodedAtMaxQuality() throws IOException {
+        BufferedImage image = new BufferedImage(500, 500, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.ORANGE);
+        graphics.fillRect(0, 0, 500, 500);
+        graphics.dispose();
+
+        JpegEncoder.Result result = JpegEncoder.encode(image, 196_608);
+
+        assertTrue(result.withinBudget());
+        assertEquals(1, result.attempts());
+        assertEquals(JpegEncoder.MAX_QUALITY, result.quality());
+        assertFalse(result.chromaSubsampling());
+    }
+
+    @Test
+    void noisyImageIsReducedToBudget() throws IOException {
+        BufferedImage image = new BufferedImage(500, 500, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt(0xffffff));
+            }
+        }
+
+        JpegEncoder.Result result = JpegEncoder.encode(image, 150_000);
+
+        assertTrue(result.withinBudget());
+        assertTrue(result.size() <= 150_000);
+        assertTrue(result.quality() < JpegEncoder.MAX_QUALITY);
+    }
+}
@@ -0,0 +1,105 @@
+package de.rouhim.beatporttospotify.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves synthetic beatport top 100 pages with the markup the parser expects.
+ * Tracks are drawn from a shared pool, so the same track shows up in several charts like on beatport.
+ */
+class BeatportStubServer implements AutoCloseable {
+    private final HttpServer server;
+    private final Map<String, String> chartPages = new ConcurrentHashMap<>();
+    private final Map<String, Long> firstFetchedAt = new ConcurrentHashMap<>();
+    private final LongAdder requestCount = new LongAdder();
+
+    BeatportStubServer(int chartCount, int tracksPerChart, int trackPoolSize) throws IOException {
+        Random random = new Random(chartCount);
+        for (int chart = 0; chart < chartCount; chart++) {
+            chartPages.put(chartPath(chart), renderChart("Load Test Genre " + chart, tracksPerChart, trackPoolSize, random));
+        }
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/genre/", this::handle);
+        server.start();
+    }
+
+    List<String> getChartUrls() {
+        List<String> urls = new ArrayList<>();
+        for (int chart = 0; chart < chartPages.size(); chart++) {
+            urls.add("http://localhost:%d%s".formatted(server.getAddress().getPort(), chartPath(chart)));
+        }
+        return urls;
+    }
+
+    Map<String, Long> getFirstFetchedAt() {
+        return firstFetchedAt;
+    }
+
+    long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestCount.increment();
+        String path = exchange.getRequestURI().getPath();
+        String page = chartPages.get(path);
+
+        if (page == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        firstFetchedAt.putIfAbsent("http://localhost:%d%s".formatted(server.getAddress().getPort(), path), System.currentTimeMillis());
+        byte[] body = page.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String chartPath(int chart) {
+        return "/genre/load-test-genre-%d/%d/top-100".formatted(chart, chart);
+    }
+
+    private static String renderChart(String genre, int tracksPerChart, int trackPoolSize, Random random) {
+        StringBuilder html = new StringBuilder()
+                .append("<!DOCTYPE html><html><head><title>").append(genre).append(" Top 100</title></head><body>")
+                .append("<div class=\"TitleControls-style__Wrapper-sc-1\"><h1>").append(genre).append("</h1></div>")
+                .append("<div data-testid=\"tracks-table\">");
+
+        for (int position = 1; position <= tracksPerChart; position++) {
+            int track = random.nextInt(trackPoolSize);
+            html.append("<div data-testid=\"tracks-table-row\">")
+                    .append("<div class=\"TracksTable-style__TrackNo-sc-1\">").append(position).append("</div>")
+                    .append("<span class=\"TracksTable-style__ReleaseName-sc-2\">Pool Track ").append(track)
+                    .append(" <span>Original Mix</span></span>")
+                    .append("<div class=\"ArtistNames-sc-3\"><a href=\"/artist/").append(track % 97).append("\">Artist ")
+                    .append(track % 97).append("</a></div>")
+                    .append("</div>");
+        }
+
+        return html.append("</div></body></html>").toString();
+    }
+}
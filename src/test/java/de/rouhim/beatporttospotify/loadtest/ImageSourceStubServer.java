@@ -0,0 +1,65 @@
+package de.rouhim.beatporttospotify.loadtest;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replaces the unsplash collection url, always serves the same 500x500 background.
+ */
+class ImageSourceStubServer implements AutoCloseable {
+    private final HttpServer server;
+    private final LongAdder requestCount = new LongAdder();
+
+    ImageSourceStubServer() throws IOException {
+        byte[] image = renderBackground();
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/background", exchange -> {
+            requestCount.increment();
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, image.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(image);
+            }
+        });
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://localhost:%d/background".formatted(server.getAddress().getPort());
+    }
+
+    long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private static byte[] renderBackground() throws IOException {
+        BufferedImage image = new BufferedImage(500, 500, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(20, 40, 90), 500, 500, new Color(230, 120, 60)));
+        graphics.fillRect(0, 0, 500, 500);
+        graphics.dispose();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,339 @@
+package de.rouhim.beatporttospotify.loadtest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal in-process redis stand-in speaking RESP2, supports the commands used by the application.
+ * Keys are kept as ISO-8859-1 strings, so binary keys and values survive a round trip.
+ */
+class InMemoryRedisServer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryRedisServer.class);
+
+    private final Map<String, Entry> store = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> commandCounts = new ConcurrentHashMap<>();
+    private final ServerSocket serverSocket;
+
+    InMemoryRedisServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread.ofVirtual().name("in-memory-redis-acceptor").start(this::acceptConnections);
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    Map<String, Long> getCommandCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        commandCounts.forEach((command, count) -> counts.put(command, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofVirtual().name("in-memory-redis-connection").start(() -> handleConnection(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    logger.warn("Could not accept redis connection", e);
+                }
+            }
+        }
+    }
+
+    private void handleConnection(Socket socket) {
+        try (socket;
+             InputStream in = new BufferedInputStream(socket.getInputStream());
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+            while (true) {
+                List<byte[]> command = readCommand(in);
+                execute(command, out);
+                out.flush();
+            }
+        } catch (EOFException e) {
+            // client disconnected
+        } catch (IOException e) {
+            if (!serverSocket.isClosed()) {
+                logger.debug("Redis connection closed", e);
+            }
+        }
+    }
+
+    private void execute(List<byte[]> command, OutputStream out) throws IOException {
+        String name = text(command.get(0)).toUpperCase();
+        commandCounts.computeIfAbsent(name, key -> new LongAdder()).increment();
+
+        switch (name) {
+            case "PING" -> writeSimple(out, "PONG");
+            case "CLIENT", "SELECT" -> writeSimple(out, "OK");
+            case "FLUSHDB", "FLUSHALL" -> {
+                store.clear();
+                writeSimple(out, "OK");
+            }
+            case "GET" -> writeBulk(out, get(key(command, 1)));
+            case "MGET" -> {
+                List<byte[]> values = new ArrayList<>();
+                for (int i = 1; i < command.size(); i++) {
+                    values.add(get(key(command, i)));
+                }
+                writeArray(out, values);
+            }
+            case "SET" -> set(command, out);
+            case "DEL", "UNLINK" -> {
+                long deleted = 0;
+                for (int i = 1; i < command.size(); i++) {
+                    if (removeLive(key(command, i)) != null) {
+                        deleted++;
+                    }
+                }
+                writeInteger(out, deleted);
+            }
+            case "EXISTS" -> {
+                long existing = 0;
+                for (int i = 1; i < command.size(); i++) {
+                    if (get(key(command, i)) != null) {
+                        existing++;
+                    }
+                }
+                writeInteger(out, existing);
+            }
+            case "INCR", "INCRBY" -> {
+                long increment = name.equals("INCR") ? 1 : Long.parseLong(text(command.get(2)));
+                Entry updated = store.compute(key(command, 1), (key, entry) -> {
+                    long current = entry == null || entry.isExpired() ? 0 : Long.parseLong(text(entry.value()));
+                    long expiresAt = entry == null || entry.isExpired() ? 0 : entry.expiresAt();
+                    return new Entry(String.valueOf(current + increment).getBytes(StandardCharsets.US_ASCII), expiresAt);
+                });
+                writeInteger(out, Long.parseLong(text(updated.value())));
+            }
+            case "EXPIRE", "PEXPIRE" -> {
+                long millis = Long.parseLong(text(command.get(2))) * (name.equals("EXPIRE") ? 1000 : 1);
+                Entry updated = store.computeIfPresent(key(command, 1), (key, entry) -> entry.isExpired()
+                        ? null
+                        : new Entry(entry.value(), System.currentTimeMillis() + millis));
+                writeInteger(out, updated == null ? 0 : 1);
+            }
+            case "TTL", "PTTL" -> {
+                Entry entry = store.get(key(command, 1));
+                if (entry == null || entry.isExpired()) {
+                    writeInteger(out, -2);
+                } else if (entry.expiresAt() == 0) {
+                    writeInteger(out, -1);
+                } else {
+                    long millis = entry.expiresAt() - System.currentTimeMillis();
+                    writeInteger(out, name.equals("TTL") ? millis / 1000 : millis);
+                }
+            }
+            case "KEYS" -> writeArray(out, matchingKeys(text(command.get(1))));
+            case "SCAN" -> scan(command, out);
+            default -> writeError(out, "ERR unknown command '" + name + "'");
+        }
+    }
+
+    // SET key value [NX|XX] [EX seconds|PX milliseconds] [GET]
+    private void set(List<byte[]> command, OutputStream out) throws IOException {
+        String key = key(command, 1);
+        byte[] value = command.get(2);
+        boolean onlyIfAbsent = false;
+        boolean onlyIfPresent = false;
+        boolean returnOld = false;
+        long expiresAt = 0;
+
+        for (int i = 3; i < command.size(); i++) {
+            String option = text(command.get(i)).toUpperCase();
+            switch (option) {
+                case "NX" -> onlyIfAbsent = true;
+                case "XX" -> onlyIfPresent = true;
+                case "GET" -> returnOld = true;
+                case "EX" -> expiresAt = System.currentTimeMillis() + Long.parseLong(text(command.get(++i))) * 1000;
+                case "PX" -> expiresAt = System.currentTimeMillis() + Long.parseLong(text(command.get(++i)));
+                default -> {
+                    writeError(out, "ERR syntax error");
+                    return;
+                }
+            }
+        }
+
+        Entry newEntry = new Entry(value, expiresAt);
+        Entry[] previous = new Entry[1];
+        boolean absentOnly = onlyIfAbsent;
+        boolean presentOnly = onlyIfPresent;
+        store.compute(key, (k, entry) -> {
+            Entry live = entry == null || entry.isExpired() ? null : entry;
+            previous[0] = live;
+            if ((absentOnly && live != null) || (presentOnly && live == null)) {
+                return live;
+            }
+            return newEntry;
+        });
+
+        boolean written = !((onlyIfAbsent && previous[0] != null) || (onlyIfPresent && previous[0] == null));
+        if (returnOld) {
+            writeBulk(out, previous[0] == null ? null : previous[0].value());
+        } else if (written) {
+            writeSimple(out, "OK");
+        } else {
+            writeBulk(out, null);
+        }
+    }
+
+    // Returns all matching keys at once, cursor is always 0
+    private void scan(List<byte[]> command, OutputStream out) throws IOException {
+        String pattern = "*";
+        for (int i = 2; i < command.size() - 1; i++) {
+            if (text(command.get(i)).equalsIgnoreCase("MATCH")) {
+                pattern = text(command.get(i + 1));
+            }
+        }
+
+        out.write("*2\r\n".getBytes(StandardCharsets.US_ASCII));
+        writeBulk(out, "0".getBytes(StandardCharsets.US_ASCII));
+        writeArray(out, matchingKeys(pattern));
+    }
+
+    private List<byte[]> matchingKeys(String globPattern) {
+        Pattern pattern = Pattern.compile(globToRegex(globPattern), Pattern.DOTALL);
+        List<byte[]> keys = new ArrayList<>();
+        store.forEach((key, entry) -> {
+            if (!entry.isExpired() && pattern.matcher(key).matches()) {
+                keys.add(key.getBytes(StandardCharsets.ISO_8859_1));
+            }
+        });
+        return keys;
+    }
+
+    private byte[] get(String key) {
+        Entry entry = store.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired()) {
+            store.remove(key, entry);
+            return null;
+        }
+        return entry.value();
+    }
+
+    private Entry removeLive(String key) {
+        Entry removed = store.remove(key);
+        return removed == null || removed.isExpired() ? null : removed;
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            switch (c) {
+                case '*' -> regex.append(".*");
+                case '?' -> regex.append('.');
+                default -> regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+
+    private static String key(List<byte[]> command, int index) {
+        return new String(command.get(index), StandardCharsets.ISO_8859_1);
+    }
+
+    private static String text(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static List<byte[]> readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            throw new EOFException();
+        }
+        if (type != '*') {
+            throw new IOException("Only RESP arrays are supported, got: " + (char) type);
+        }
+
+        int count = Integer.parseInt(readLine(in));
+        List<byte[]> parts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (in.read() != '$') {
+                throw new IOException("Expected bulk string");
+            }
+            int length = Integer.parseInt(readLine(in));
+            byte[] part = in.readNBytes(length);
+            if (part.length != length) {
+                throw new EOFException();
+            }
+            readLine(in);
+            parts.add(part);
+        }
+        return parts;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c == -1) {
+                throw new EOFException();
+            }
+            line.append((char) c);
+        }
+        in.read(); // \n
+        return line.toString();
+    }
+
+    private static void writeSimple(OutputStream out, String value) throws IOException {
+        out.write(("+" + value + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeError(OutputStream out, String message) throws IOException {
+        out.write(("-" + message + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeInteger(OutputStream out, long value) throws IOException {
+        out.write((":" + value + "\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void writeBulk(OutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.write("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        out.write(("$" + value.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(value);
+        out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void writeArray(OutputStream out, List<byte[]> values) throws IOException {
+        out.write(("*" + values.size() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        for (byte[] value : values) {
+            writeBulk(out, value);
+        }
+    }
+
+    private record Entry(byte[] value, long expiresAt) {
+        boolean isExpired() {
+            return expiresAt != 0 && expiresAt <= System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package de.rouhim.beatporttospotify.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects per stage latencies and api call counts of a load test run, printed and written as json.
+ */
+class LoadTestReport {
+    private static final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final Map<String, Object> parameters = new LinkedHashMap<>();
+    private final Map<String, List<Long>> stageLatencies = new LinkedHashMap<>();
+    private final Map<String, Map<String, Long>> callCounts = new LinkedHashMap<>();
+    private int completedCharts;
+    private long durationMillis;
+
+    void parameter(String name, Object value) {
+        parameters.put(name, value);
+    }
+
+    void latency(String stage, long millis) {
+        stageLatencies.computeIfAbsent(stage, key -> new ArrayList<>()).add(millis);
+    }
+
+    void callCounts(String dependency, Map<String, Long> counts) {
+        callCounts.put(dependency, counts);
+    }
+
+    void completed(int completedCharts, long durationMillis) {
+        this.completedCharts = completedCharts;
+        this.durationMillis = durationMillis;
+    }
+
+    double getThroughputPerMinute() {
+        return durationMillis == 0 ? 0 : completedCharts * 60_000d / durationMillis;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> stages = new LinkedHashMap<>();
+        stageLatencies.forEach((stage, latencies) -> stages.put(stage, percentiles(latencies)));
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("parameters", parameters);
+        report.put("completedCharts", completedCharts);
+        report.put("durationMillis", durationMillis);
+        report.put("chartsPerMinute", getThroughputPerMinute());
+        report.put("stageLatencyMillis", stages);
+        report.put("callCounts", callCounts);
+        return report;
+    }
+
+    void write(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        objectMapper.writeValue(file, toMap());
+    }
+
+    String format() throws IOException {
+        return objectMapper.writeValueAsString(toMap());
+    }
+
+    private static Map<String, Long> percentiles(List<Long> latencies) {
+        List<Long> sorted = latencies.stream().sorted().toList();
+        Map<String, Long> percentiles = new LinkedHashMap<>();
+        percentiles.put("count", (long) sorted.size());
+        percentiles.put("p50", percentile(sorted, 50));
+        percentiles.put("p90", percentile(sorted, 90));
+        percentiles.put("p99", percentile(sorted, 99));
+        percentiles.put("max", sorted.isEmpty() ? 0 : sorted.get(sorted.size() - 1));
+        return percentiles;
+    }
+
+    // nearest-rank percentile
+    private static long percentile(List<Long> sorted, int percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100d * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+}
@@ -0,0 +1,162 @@
+package de.rouhim.beatporttospotify.loadtest;
+
+import de.rouhim.beatporttospotify.BeatportToSpotifyApplication;
+import de.rouhim.beatporttospotify.config.Settings;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.EmbeddedKafkaZKBroker;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Drives synthetic charts through the real services, without any beatport, spotify, kafka or redis installation.
+ * Kafka runs embedded, redis, beatport, spotify and the cover image source are replaced by in-process stubs.
+ * <p>
+ * Run with: ./mvnw test -Dtest=PipelineLoadTest -Dloadtest=true -Dloadtest.charts=50
+ * <p>
+ * Parameters (system properties): loadtest.charts, loadtest.tracksPerChart, loadtest.trackPool,
+ * loadtest.partitions, loadtest.concurrency, loadtest.spotifyLatencyMs, loadtest.rateLimitEvery, loadtest.timeoutSeconds
+ */
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+class PipelineLoadTest {
+    private final int charts = Integer.getInteger("loadtest.charts", 20);
+    private final int tracksPerChart = Integer.getInteger("loadtest.tracksPerChart", 100);
+    private final int trackPool = Integer.getInteger("loadtest.trackPool", 1500);
+    private final int partitions = Integer.getInteger("loadtest.partitions", 4);
+    private final int concurrency = Integer.getInteger("loadtest.concurrency", 4);
+    private final int spotifyLatencyMillis = Integer.getInteger("loadtest.spotifyLatencyMs", 20);
+    private final int rateLimitEvery = Integer.getInteger("loadtest.rateLimitEvery", 0);
+    private final int timeoutSeconds = Integer.getInteger("loadtest.timeoutSeconds", 300);
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void syncSyntheticCharts() throws Exception {
+        EmbeddedKafkaBroker kafka = new EmbeddedKafkaZKBroker(1, false, partitions);
+        kafka.afterPropertiesSet();
+
+        try (InMemoryRedisServer redis = new InMemoryRedisServer();
+             BeatportStubServer beatport = new BeatportStubServer(charts, tracksPerChart, trackPool);
+             SpotifyStubServer spotify = new SpotifyStubServer(spotifyLatencyMillis, rateLimitEvery);
+             ImageSourceStubServer imageSource = new ImageSourceStubServer();
+             PipelineObserver observer = new PipelineObserver(kafka.getBrokersAsString())) {
+
+            setSetting(Settings.EnvValue.BEATPORT_URLS, String.join(",", beatport.getChartUrls()));
+            setSetting(Settings.EnvValue.COVER_IMAGE_URL, imageSource.getUrl());
+            setSetting(Settings.EnvValue.DATA_DIR, dataDir.toString());
+            setSetting(Settings.EnvValue.SPOTIFY_CLIENT_ID, "load-test-client");
+            setSetting(Settings.EnvValue.SPOTIFY_CLIENT_SECRET, "load-test-secret");
+            setSetting(Settings.EnvValue.SPOTIFY_AUTH_CODE, "load-test-auth-code");
+
+            long startedAt = System.currentTimeMillis();
+            try (ConfigurableApplicationContext ignored = new SpringApplicationBuilder(BeatportToSpotifyApplication.class)
+                    .initializers(context -> context.getBeanFactory()
+                            .registerSingleton("spotifyHttpManager", new StubRoutingHttpManager(spotify.getPort())))
+                    .properties(
+                            "server.port=0",
+                            "spring.kafka.bootstrap-servers=" + kafka.getBrokersAsString(),
+                            "spring.kafka.listener.concurrency=" + concurrency,
+                            // The topics are created by the application, not with the defaults of the embedded broker
+                            "pipeline.partitions=" + partitions,
+                            "spring.data.redis.host=localhost",
+                            "spring.data.redis.port=" + redis.getPort()
+                    )
+                    .run()) {
+                awaitCoverUploads(spotify, startedAt);
+            }
+            long finishedAt = lastOf(spotify.getCoverUploadedAt(), spotify.getTracksWrittenAt());
+
+            LoadTestReport report = createReport(observer, beatport, spotify, imageSource, redis);
+            report.completed(spotify.getTracksWrittenAt().size(), finishedAt - firstNonZero(observer.getTriggeredAt(), startedAt));
+            report.write(new File("target/load-test-report.json"));
+            System.out.println(report.format());
+
+            assertThat(spotify.getTracksWrittenAt()).hasSize(charts);
+        } finally {
+            for (Settings.EnvValue envValue : Settings.EnvValue.values()) {
+                System.clearProperty(envValue.name());
+            }
+            kafka.destroy();
+        }
+    }
+
+    private void awaitCoverUploads(SpotifyStubServer spotify, long startedAt) throws InterruptedException {
+        long deadline = startedAt + timeoutSeconds * 1000L;
+        while (spotify.getCoverUploadedAt().size() < charts && System.currentTimeMillis() < deadline) {
+            Thread.sleep(250);
+        }
+    }
+
+    private LoadTestReport createReport(PipelineObserver observer,
+                                        BeatportStubServer beatport,
+                                        SpotifyStubServer spotify,
+                                        ImageSourceStubServer imageSource,
+                                        InMemoryRedisServer redis) {
+        LoadTestReport report = new LoadTestReport();
+        report.parameter("charts", charts);
+        report.parameter("tracksPerChart", tracksPerChart);
+        report.parameter("trackPool", trackPool);
+        report.parameter("partitions", partitions);
+        report.parameter("concurrency", concurrency);
+        report.parameter("spotifyLatencyMs", spotifyLatencyMillis);
+        report.parameter("rateLimitEvery", rateLimitEvery);
+
+        Map<String, String> playlistIdByTitle = new HashMap<>();
+        spotify.getPlaylistNames().forEach((id, title) -> playlistIdByTitle.put(title, id));
+
+        for (String url : beatport.getChartUrls()) {
+            Long urlObtainedAt = observer.getUrlObtainedAt().get(url);
+            Long fetchedAt = beatport.getFirstFetchedAt().get(url);
+            Long parsedAt = observer.getParsedAt().get(url);
+            String playlistId = playlistIdByTitle.get(observer.getTitleByUrl().get(url));
+            Long writtenAt = playlistId == null ? null : spotify.getTracksWrittenAt().get(playlistId);
+            Long coverUploadedAt = playlistId == null ? null : spotify.getCoverUploadedAt().get(playlistId);
+
+            recordLatency(report, "1-schedule-to-url-obtained", observer.getTriggeredAt(), urlObtainedAt);
+            recordLatency(report, "2-url-obtained-to-fetched", urlObtainedAt, fetchedAt);
+            recordLatency(report, "3-fetched-to-parsed", fetchedAt, parsedAt);
+            recordLatency(report, "4-parsed-to-tracks-written", parsedAt, writtenAt);
+            recordLatency(report, "5-tracks-written-to-cover-uploaded", writtenAt, coverUploadedAt);
+            recordLatency(report, "total-schedule-to-tracks-written", observer.getTriggeredAt(), writtenAt);
+        }
+
+        report.callCounts("spotify", spotify.getCallCounts());
+        report.callCounts("beatport", Map.of("GET /genre/{chart}", beatport.getRequestCount()));
+        report.callCounts("imageSource", Map.of("GET /background", imageSource.getRequestCount()));
+        report.callCounts("redis", redis.getCommandCounts());
+        return report;
+    }
+
+    private static void recordLatency(LoadTestReport report, String stage, Long from, Long to) {
+        if (from != null && to != null && from > 0) {
+            report.latency(stage, Math.max(0, to - from));
+        }
+    }
+
+    private static long lastOf(Map<String, Long> coverUploads, Map<String, Long> trackWrites) {
+        return List.of(coverUploads, trackWrites).stream()
+                .flatMap(timestamps -> timestamps.values().stream())
+                .mapToLong(Long::longValue)
+                .max()
+                .orElse(System.currentTimeMillis());
+    }
+
+    private static long firstNonZero(long value, long fallback) {
+        return value == 0 ? fallback : value;
+    }
+
+    private static void setSetting(Settings.EnvValue envValue, String value) {
+        System.setProperty(envValue.name(), value);
+    }
+}
@@ -0,0 +1,110 @@
+package de.rouhim.beatporttospotify.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_PARSED;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_URL_OBTAINED;
+import static de.rouhim.beatporttospotify.config.KafkaTopicConfig.KAFKA_TOPIC_BEATPORT_PARSING_SCHEDULED;
+
+/**
+ * Reads the pipeline topics with its own consumer group and remembers when each chart passed a stage.
+ */
+class PipelineObserver implements AutoCloseable {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final KafkaConsumer<String, String> consumer;
+    private final Thread pollThread;
+    private volatile boolean running = true;
+    private volatile long triggeredAt;
+    private final Map<String, Long> urlObtainedAt = new ConcurrentHashMap<>();
+    private final Map<String, Long> parsedAt = new ConcurrentHashMap<>();
+    private final Map<String, String> titleByUrl = new ConcurrentHashMap<>();
+
+    PipelineObserver(String bootstrapServers) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, "load-test-observer");
+        properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        consumer = new KafkaConsumer<>(properties);
+        consumer.subscribe(List.of(
+                KAFKA_TOPIC_BEATPORT_PARSING_SCHEDULED,
+                KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_URL_OBTAINED,
+                KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_PARSED
+        ));
+
+        pollThread = new Thread(this::poll, "load-test-observer");
+        pollThread.start();
+    }
+
+    long getTriggeredAt() {
+        return triggeredAt;
+    }
+
+    Map<String, Long> getUrlObtainedAt() {
+        return urlObtainedAt;
+    }
+
+    Map<String, Long> getParsedAt() {
+        return parsedAt;
+    }
+
+    Map<String, String> getTitleByUrl() {
+        return titleByUrl;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        pollThread.join();
+    }
+
+    private void poll() {
+        try (consumer) {
+            while (running) {
+                for (ConsumerRecord<String, String> record : consumer.poll(Duration.ofMillis(200))) {
+                    record(record);
+                }
+            }
+        }
+    }
+
+    private void record(ConsumerRecord<String, String> record) {
+        switch (record.topic()) {
+            case KAFKA_TOPIC_BEATPORT_PARSING_SCHEDULED -> {
+                if (triggeredAt == 0) {
+                    triggeredAt = record.timestamp();
+                }
+            }
+            case KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_URL_OBTAINED -> urlObtainedAt.putIfAbsent(record.value(), record.timestamp());
+            case KAFKA_TOPIC_BEATPORT_GENRE_PLAYLIST_PARSED -> {
+                JsonNode playlist = readTree(record.value());
+                String url = playlist.path("url").asText();
+                parsedAt.putIfAbsent(url, record.timestamp());
+                titleByUrl.putIfAbsent(url, playlist.path("title").asText());
+            }
+            default -> {
+            }
+        }
+    }
+
+    private static JsonNode readTree(String json) {
+        try {
+            return objectMapper.readTree(json);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
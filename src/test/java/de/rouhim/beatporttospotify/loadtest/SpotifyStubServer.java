@@ -0,0 +1,234 @@
+package de.rouhim.beatporttospotify.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stub of the spotify accounts and web api endpoints used by the application.
+ * Every api call is delayed by the configured latency, every n-th search is answered with 429 if configured.
+ */
+class SpotifyStubServer implements AutoCloseable {
+    static final String USER_ID = "load-test-user";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final HttpServer server;
+    private final long latencyMillis;
+    private final int rateLimitEvery;
+    private final AtomicInteger searchCounter = new AtomicInteger();
+    private final AtomicInteger playlistCounter = new AtomicInteger();
+    private final Map<String, LongAdder> callCounts = new ConcurrentHashMap<>();
+    private final Map<String, String> playlistNames = new ConcurrentHashMap<>();
+    private final Map<String, Long> tracksWrittenAt = new ConcurrentHashMap<>();
+    private final Map<String, Integer> tracksWritten = new ConcurrentHashMap<>();
+    private final Map<String, Long> coverUploadedAt = new ConcurrentHashMap<>();
+
+    SpotifyStubServer(long latencyMillis, int rateLimitEvery) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.rateLimitEvery = rateLimitEvery;
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    Map<String, Long> getCallCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        callCounts.forEach((call, count) -> counts.put(call, count.sum()));
+        return counts;
+    }
+
+    long getTotalCalls() {
+        return callCounts.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    Map<String, String> getPlaylistNames() {
+        return playlistNames;
+    }
+
+    Map<String, Long> getTracksWrittenAt() {
+        return tracksWrittenAt;
+    }
+
+    Map<String, Integer> getTracksWritten() {
+        return tracksWritten;
+    }
+
+    Map<String, Long> getCoverUploadedAt() {
+        return coverUploadedAt;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            String[] segments = path.split("/");
+
+            if (path.equals("/api/token")) {
+                count("POST /api/token");
+                respond(exchange, 200, """
+                        {"access_token":"load-test-access-token","token_type":"Bearer","scope":"playlist-modify-public",
+                        "expires_in":3600,"refresh_token":"load-test-refresh-token"}""");
+                return;
+            }
+
+            simulateLatency();
+
+            if (method.equals("GET") && path.equals("/v1/me")) {
+                count("GET /v1/me");
+                respond(exchange, 200, """
+                        {"id":"%s","display_name":"Load Test","type":"user","uri":"spotify:user:%s"}"""
+                        .formatted(USER_ID, USER_ID));
+            } else if (method.equals("GET") && path.equals("/v1/me/playlists")) {
+                count("GET /v1/me/playlists");
+                respond(exchange, 200, listPlaylists());
+            } else if (method.equals("POST") && path.equals("/v1/users/%s/playlists".formatted(USER_ID))) {
+                count("POST /v1/users/{id}/playlists");
+                respond(exchange, 201, createPlaylist(readJson(exchange).path("name").asText()));
+            } else if (method.equals("GET") && path.startsWith("/v1/playlists/") && segments.length == 4) {
+                count("GET /v1/playlists/{id}");
+                respond(exchange, 200, playlistJson(segments[3]));
+            } else if (method.equals("PUT") && path.endsWith("/tracks")) {
+                count("PUT /v1/playlists/{id}/tracks");
+                writeTracks(segments[3], readJson(exchange).path("uris").size());
+                respond(exchange, 200, "{\"snapshot_id\":\"%s\"}".formatted(snapshotId(segments[3])));
+            } else if (method.equals("GET") && path.endsWith("/images")) {
+                count("GET /v1/playlists/{id}/images");
+                respond(exchange, 200, "[]");
+            } else if (method.equals("PUT") && path.endsWith("/images")) {
+                count("PUT /v1/playlists/{id}/images");
+                exchange.getRequestBody().readAllBytes();
+                coverUploadedAt.putIfAbsent(segments[3], System.currentTimeMillis());
+                exchange.sendResponseHeaders(202, -1);
+            } else if (method.equals("GET") && path.equals("/v1/search")) {
+                search(exchange);
+            } else {
+                count("UNKNOWN " + method + " " + path);
+                respond(exchange, 404, "{\"error\":{\"status\":404,\"message\":\"Not found\"}}");
+            }
+        }
+    }
+
+    private void search(HttpExchange exchange) throws IOException {
+        if (rateLimitEvery > 0 && searchCounter.incrementAndGet() % rateLimitEvery == 0) {
+            count("GET /v1/search (429)");
+            exchange.getResponseHeaders().add("Retry-After", "1");
+            respond(exchange, 429, "{\"error\":{\"status\":429,\"message\":\"API rate limit exceeded\"}}");
+            return;
+        }
+
+        count("GET /v1/search");
+        String query = queryParameter(exchange, "q");
+        String trackId = "%022x".formatted(Math.abs((long) query.hashCode()));
+        respond(exchange, 200, """
+                {"tracks":{"href":"https://api.spotify.com/v1/search","items":[
+                {"id":"%s","name":%s,"type":"track","uri":"spotify:track:%s","duration_ms":300000,"explicit":false,
+                "is_local":false,"popularity":10,"track_number":1,"disc_number":1,"artists":[],"available_markets":["DE"]}
+                ],"limit":20,"next":null,"offset":0,"previous":null,"total":1}}"""
+                .formatted(trackId, objectMapper.writeValueAsString(query), trackId));
+    }
+
+    private synchronized String createPlaylist(String name) {
+        String id = "loadtest%014d".formatted(playlistCounter.incrementAndGet());
+        playlistNames.put(id, name);
+        return playlistJson(id);
+    }
+
+    private void writeTracks(String playlistId, int trackCount) {
+        tracksWritten.put(playlistId, trackCount);
+        tracksWrittenAt.putIfAbsent(playlistId, System.currentTimeMillis());
+    }
+
+    private String listPlaylists() {
+        List<String> items = new ArrayList<>();
+        playlistNames.keySet().stream().sorted().limit(50).forEach(id -> items.add(playlistJson(id)));
+        return """
+                {"href":"https://api.spotify.com/v1/me/playlists","items":[%s],"limit":50,"next":null,"offset":0,
+                "previous":null,"total":%d}""".formatted(String.join(",", items), playlistNames.size());
+    }
+
+    private String playlistJson(String id) {
+        try {
+            return """
+                    {"id":"%s","name":%s,"type":"playlist","uri":"spotify:playlist:%s","public":true,"collaborative":false,
+                    "snapshot_id":"%s","images":[],"owner":{"id":"%s","type":"user","uri":"spotify:user:%s"}}"""
+                    .formatted(id, objectMapper.writeValueAsString(playlistNames.getOrDefault(id, id)), id,
+                            snapshotId(id), USER_ID, USER_ID);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String snapshotId(String playlistId) {
+        return "snapshot-%s-%d".formatted(playlistId, tracksWritten.getOrDefault(playlistId, 0));
+    }
+
+    private void simulateLatency() {
+        if (latencyMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void count(String call) {
+        callCounts.computeIfAbsent(call, key -> new LongAdder()).increment();
+    }
+
+    private static JsonNode readJson(HttpExchange exchange) throws IOException {
+        return objectMapper.readTree(exchange.getRequestBody());
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        if (rawQuery == null) {
+            return "";
+        }
+        for (String parameter : rawQuery.split("&")) {
+            String[] keyValue = parameter.split("=", 2);
+            if (keyValue[0].equals(name) && keyValue.length == 2) {
+                return URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8);
+            }
+        }
+        return "";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package de.rouhim.beatporttospotify.loadtest;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.ParseException;
+import se.michaelthelin.spotify.IHttpManager;
+import se.michaelthelin.spotify.SpotifyHttpManager;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Sends every spotify request, including the accounts service, to the local spotify stub.
+ */
+class StubRoutingHttpManager implements IHttpManager {
+    private final IHttpManager delegate = new SpotifyHttpManager.Builder().build();
+    private final int stubPort;
+
+    StubRoutingHttpManager(int stubPort) {
+        this.stubPort = stubPort;
+    }
+
+    @Override
+    public String get(URI uri, Header[] headers) throws IOException, SpotifyWebApiException, ParseException {
+        return delegate.get(toStub(uri), headers);
+    }
+
+    @Override
+    public String post(URI uri, Header[] headers, HttpEntity body) throws IOException, SpotifyWebApiException, ParseException {
+        return delegate.post(toStub(uri), headers, body);
+    }
+
+    @Override
+    public String put(URI uri, Header[] headers, HttpEntity body) throws IOException, SpotifyWebApiException, ParseException {
+        return delegate.put(toStub(uri), headers, body);
+    }
+
+    @Override
+    public String delete(URI uri, Header[] headers, HttpEntity body) throws IOException, SpotifyWebApiException, ParseException {
+        return delegate.delete(toStub(uri), headers, body);
+    }
+
+    private URI toStub(URI uri) {
+        String query = uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery();
+        return URI.create("http://localhost:%d%s%s".formatted(stubPort, uri.getRawPath(), query));
+    }
+}
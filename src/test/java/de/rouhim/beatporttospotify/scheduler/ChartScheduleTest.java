@@ -0,0 +1,53 @@
+package de.rouhim.beatporttospotify.scheduler;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ChartScheduleTest {
+    private static final long MINUTE = 60_000;
+
+    @Test
+    void unchangedContentBacksOffUpToLimit() {
+        ChartSchedule schedule = ChartSchedule.initial("url", 60, 0)
+                .triggered(1_000, 0)
+                .withContent("a");
+
+        for (int i = 0; i < 10; i++) {
+            schedule = schedule.withContent("a");
+        }
+
+        assertEquals(60 * ChartSchedule.MAX_BACKOFF_MULTIPLIER, schedule.intervalMinutes());
+        assertEquals(10, schedule.unchangedRuns());
+        assertEquals(1_000 + schedule.intervalMinutes() * MINUTE, schedule.nextRunAt());
+    }
+
+    @Test
+    void changedContentResetsToBaseInterval() {
+        ChartSchedule schedule = ChartSchedule.initial("url", 60, 0)
+                .triggered(1_000, 0)
+                .withContent("a")
+                .withContent("a")
+                .withContent("b");
+
+        assertEquals(60, schedule.intervalMinutes());
+        assertEquals(0, schedule.unchangedRuns());
+        assertEquals(1_000 + 60 * MINUTE, schedule.nextRunAt());
+    }
+
+    @Test
+    void jitterIsKeptWhenIntervalIsAdapted() {
+        long jitterMillis = 4 * MINUTE;
+        ChartSchedule triggered = ChartSchedule.initial("url", 60, 0)
+                .triggered(1_000, jitterMillis);
+        assertEquals(1_000 + 60 * MINUTE + jitterMillis, triggered.nextRunAt());
+
+        ChartSchedule changed = triggered.withContent("a");
+        assertEquals(1_000 + 60 * MINUTE + jitterMillis, changed.nextRunAt());
+
+        ChartSchedule unchanged = changed.withContent("a");
+        assertEquals(90, unchanged.intervalMinutes());
+        assertEquals(6 * MINUTE, unchanged.jitterMillis());
+        assertEquals(1_000 + 90 * MINUTE + 6 * MINUTE, unchanged.nextRunAt());
+    }
+}
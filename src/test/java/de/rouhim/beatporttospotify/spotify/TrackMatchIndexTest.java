@@ -0,0 +1,53 @@
+package de.rouhim.beatporttospotify.spotify;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TrackMatchIndexTest {
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void matchesSurviveReopening() throws Exception {
+        Path file = dataDir.resolve(TrackMatchIndex.FILE_NAME);
+        try (TrackMatchIndex index = new TrackMatchIndex(file)) {
+            index.put("Artist  Name Tïtle", "spotify:track:1");
+            index.put("Other Title", "spotify:track:2");
+            index.remove("other title");
+        }
+
+        try (TrackMatchIndex index = new TrackMatchIndex(file)) {
+            assertEquals(Optional.of("spotify:track:1"), index.get("artist name title"));
+            assertEquals(Optional.empty(), index.get("Other Title"));
+            assertEquals(1, index.size());
+        }
+    }
+
+    @Test
+    void tornRecordIsCutOff() throws Exception {
+        Path file = dataDir.resolve(TrackMatchIndex.FILE_NAME);
+        try (TrackMatchIndex index = new TrackMatchIndex(file)) {
+            index.put("first", "spotify:track:1");
+        }
+        long validLength = Files.size(file);
+        Files.write(file, new byte[]{1, 0, 0, 0, 42, 'x'}, StandardOpenOption.APPEND);
+
+        try (TrackMatchIndex index = new TrackMatchIndex(file)) {
+            assertEquals(Optional.of("spotify:track:1"), index.get("first"));
+            assertEquals(validLength, Files.size(file));
+
+            index.put("second", "spotify:track:2");
+        }
+
+        try (TrackMatchIndex index = new TrackMatchIndex(file)) {
+            assertEquals(2, index.size());
+        }
+    }
+}